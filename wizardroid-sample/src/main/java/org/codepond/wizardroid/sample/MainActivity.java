@@ -46,7 +46,8 @@ public class MainActivity extends ListActivity {
         // Instantiate the list of samples.
         mSamples = new Sample[] {
                 new Sample(R.string.title_tutorial_wizard, TutorialActivity.class),
-                new Sample(R.string.title_form_wizard, FormActivity.class)
+                new Sample(R.string.title_form_wizard, FormActivity.class),
+                new Sample(R.string.title_stress_wizard, StressActivity.class)
         };
 
         setListAdapter(new ArrayAdapter<Sample>(this,
@@ -0,0 +1,89 @@
+package org.codepond.wizardroid.sample;
+
+import android.os.Debug;
+import android.os.Parcel;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+import org.codepond.wizardroid.Wizard;
+import org.codepond.wizardroid.WizardEventRecorder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * On-screen overlay showing the cost of each wizard transition: its duration, the objects it allocated on
+ * the main thread and the size of the wizard context. Long press the overlay to dump the recent
+ * navigation events to logcat. Allocations are only counted while a transition is measured, the counting is
+ * global to the process.
+ */
+public class PerformanceHud implements View.OnLongClickListener {
+    private static final String TAG = PerformanceHud.class.getSimpleName();
+
+    private final TextView view;
+    private long startTime;
+
+    private int transitions;
+    private long totalTime;
+    private long maxTime;
+
+    public PerformanceHud(TextView view) {
+        this.view = view;
+        view.setOnLongClickListener(this);
+    }
+
+    /**
+     * Call right before asking the wizard to move
+     */
+    public void onTransitionStarted() {
+        //Per-thread allocation counters, may stay at 0 on runtimes which don't support them
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Call right after the wizard moved, even if it failed, to stop counting allocations.
+     * The measurement of the context isn't included in the transition.
+     */
+    public void onTransitionFinished(Wizard wizard) {
+        final long time = System.nanoTime() - startTime;
+        Debug.stopAllocCounting();
+        final int allocCount = Debug.getThreadAllocCount();
+        final int allocSize = Debug.getThreadAllocSize();
+        transitions++;
+        totalTime += time;
+        maxTime = Math.max(maxTime, time);
+        view.setText(view.getContext().getString(R.string.sample_stress_hud,
+                wizard.getCurrentStepPosition() + 1, wizard.getFlow().getStepsCount(), wizard.getSubFlowDepth(),
+                time / 1000000f, allocCount, allocSize / 1024,
+                totalTime / 1000000f / transitions, maxTime / 1000000f, transitions,
+                wizard.getContext().size(), getParceledSize(wizard) / 1024));
+    }
+
+    /**
+     * Get the size of the wizard context once parceled, which is what the saved instance state has to carry
+     */
+    private static int getParceledSize(Wizard wizard) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(wizard.getContext());
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Override
+    public boolean onLongClick(View v) {
+        final StringWriter events = new StringWriter();
+        try {
+            WizardEventRecorder.writeText(events);
+        } catch (IOException e) {
+            //Can't happen with a StringWriter
+        }
+        Log.i(TAG, "Recent wizard events:\n" + events);
+        return true;
+    }
+}
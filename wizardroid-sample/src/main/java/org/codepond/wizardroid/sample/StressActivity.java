@@ -0,0 +1,46 @@
+package org.codepond.wizardroid.sample;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.support.v4.app.FragmentActivity;
+
+/**
+ * Hosts the stress wizard. Configure it with the extras, e.g.
+ * adb shell am start -n org.codepond.wizardroid.sample/.StressActivity --ei steps 500 --ei payloadKb 256 --ei sectionSize 50
+ */
+public class StressActivity extends FragmentActivity {
+    /**
+     * Number of steps of the wizard
+     */
+    public static final String EXTRA_STEPS = "steps";
+    /**
+     * Size in KB of the Parcelable passed on by every step
+     */
+    public static final String EXTRA_PAYLOAD_KB = "payloadKb";
+    /**
+     * Number of steps grouped in each sub-flow, 0 for a single flat flow
+     */
+    public static final String EXTRA_SECTION_SIZE = "sectionSize";
+
+    private static final int DEFAULT_STEPS = 300;
+    private static final int DEFAULT_PAYLOAD_KB = 64;
+    private static final int DEFAULT_SECTION_SIZE = 0;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_stress);
+    }
+
+    public static int getStepCount(Activity activity) {
+        return Math.max(1, activity.getIntent().getIntExtra(EXTRA_STEPS, DEFAULT_STEPS));
+    }
+
+    public static int getPayloadSize(Activity activity) {
+        return Math.max(0, activity.getIntent().getIntExtra(EXTRA_PAYLOAD_KB, DEFAULT_PAYLOAD_KB)) * 1024;
+    }
+
+    public static int getSectionSize(Activity activity) {
+        return activity.getIntent().getIntExtra(EXTRA_SECTION_SIZE, DEFAULT_SECTION_SIZE);
+    }
+}
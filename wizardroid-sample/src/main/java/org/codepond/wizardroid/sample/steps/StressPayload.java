@@ -0,0 +1,74 @@
+package org.codepond.wizardroid.sample.steps;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Large Parcelable passed through the wizard context by the stress wizard
+ */
+public class StressPayload implements Parcelable {
+    private final int stepIndex;
+    private final byte[] data;
+
+    public StressPayload(int stepIndex, int size) {
+        this.stepIndex = stepIndex;
+        this.data = new byte[size];
+        //Fill the payload so it can't be compressed away
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + stepIndex);
+        }
+    }
+
+    private StressPayload(Parcel in) {
+        stepIndex = in.readInt();
+        data = in.createByteArray();
+    }
+
+    /**
+     * Recreate a payload from the handle returned by {@link #getHandle()}
+     */
+    public static StressPayload fromHandle(String handle) {
+        final int separator = handle.indexOf(':');
+        return new StressPayload(Integer.parseInt(handle.substring(0, separator)),
+                Integer.parseInt(handle.substring(separator + 1)));
+    }
+
+    /**
+     * Get a handle identifying the payload, payloads are filled from their step index so equal handles
+     * refer to equal payloads
+     */
+    public String getHandle() {
+        return stepIndex + ":" + data.length;
+    }
+
+    public int getStepIndex() {
+        return stepIndex;
+    }
+
+    public int getSize() {
+        return data.length;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(stepIndex);
+        dest.writeByteArray(data);
+    }
+
+    public static final Creator<StressPayload> CREATOR = new Creator<StressPayload>() {
+        @Override
+        public StressPayload createFromParcel(Parcel in) {
+            return new StressPayload(in);
+        }
+
+        @Override
+        public StressPayload[] newArray(int size) {
+            return new StressPayload[size];
+        }
+    };
+}
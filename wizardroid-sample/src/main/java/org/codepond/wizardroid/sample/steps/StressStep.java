@@ -0,0 +1,131 @@
+package org.codepond.wizardroid.sample.steps;
+
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import org.codepond.wizardroid.WizardStep;
+import org.codepond.wizardroid.persistence.ContextKey;
+import org.codepond.wizardroid.persistence.ContextVariable;
+import org.codepond.wizardroid.persistence.LargeValueCache;
+import org.codepond.wizardroid.sample.R;
+import org.codepond.wizardroid.sample.StressActivity;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Step of the stress wizard, repeated hundreds of times. Every step passes on a large Parcelable and a few
+ * {@link ContextVariable} fields, and adds a typed context variable of its own, so the context keeps growing.
+ * The large Parcelables go through a {@link LargeValueCache}, only their handles are kept in the context,
+ * which keeps the saved instance state small.
+ */
+public class StressStep extends WizardStep {
+    /**
+     * Number of steps the user went through, counting the steps of every sub-flow
+     */
+    public static final ContextKey<Integer> STEP_INDEX = ContextKey.of("stressStepIndex", Integer.class);
+
+    private static final int TRAIL_LENGTH = 20;
+    //Every tenth step keeps its payload in the context for good
+    private static final int PAYLOAD_INTERVAL = 10;
+    private static final int PAYLOAD_CACHE_SIZE = 8 * 1024 * 1024;
+
+    /*
+        Payloads are recreated from their handle when they were evicted or lost with the process
+     */
+    private static final LargeValueCache PAYLOADS = new LargeValueCache(PAYLOAD_CACHE_SIZE, new LargeValueCache.Loader() {
+        @Override
+        public Object load(String handle) {
+            return StressPayload.fromHandle(handle);
+        }
+    }) {
+        @Override
+        protected int sizeOf(Object value) {
+            return value instanceof StressPayload ? ((StressPayload) value).getSize() : super.sizeOf(value);
+        }
+    };
+    private static final ContextKey.Codec<StressPayload> PAYLOAD_CODEC = PAYLOADS.codec(StressPayload.class,
+            new LargeValueCache.HandleProvider<StressPayload>() {
+                @Override
+                public String getHandle(String name, StressPayload value) {
+                    return value.getHandle();
+                }
+            });
+    private static final ContextKey<StressPayload> PAYLOAD = ContextKey.of("stressLastPayload", StressPayload.class, PAYLOAD_CODEC);
+
+    @ContextVariable
+    private String lastStep;
+    @ContextVariable
+    private Date lastStepTime;
+    @ContextVariable
+    private ArrayList<String> trail;
+
+    //You must have an empty constructor for every step
+    public StressStep() {
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        View v = inflater.inflate(R.layout.step_stress, container, false);
+        TextView summary = (TextView) v.findViewById(R.id.stress_summary);
+        if (lastStep == null) {
+            summary.setText(R.string.sample_stress_text);
+        }
+        else {
+            final StressPayload payload = getContextValue(PAYLOAD);
+            summary.setText(getString(R.string.sample_stress_summary, lastStep, lastStepTime,
+                    payload != null ? payload.getSize() / 1024 : 0, trail != null ? trail.size() : 0));
+        }
+        return v;
+    }
+
+    @Override
+    public void onExit(int exitCode) {
+        final Integer storedIndex = getContextValue(STEP_INDEX);
+        final int index = storedIndex != null ? storedIndex : 0;
+        switch (exitCode) {
+            case WizardStep.EXIT_NEXT:
+                passContext(index);
+                putContextValue(STEP_INDEX, index + 1);
+                break;
+            case WizardStep.EXIT_PREVIOUS:
+                putContextValue(STEP_INDEX, Math.max(0, index - 1));
+                break;
+        }
+    }
+
+    private void passContext(int index) {
+        final int payloadSize = StressActivity.getPayloadSize(getActivity());
+        lastStep = "Step " + (index + 1);
+        lastStepTime = new Date();
+        final StressPayload payload = new StressPayload(index, payloadSize);
+        putContextValue(PAYLOAD, payload);
+        if (trail == null) {
+            trail = new ArrayList<String>(TRAIL_LENGTH);
+        }
+        if (trail.size() == TRAIL_LENGTH) {
+            trail.remove(0);
+        }
+        trail.add(lastStep);
+
+        //One typed variable per step, cycling through the boxed primitive types
+        final String name = "stressValue" + index;
+        switch (index % 8) {
+            case 0: putContextValue(ContextKey.of(name, Integer.class), index); break;
+            case 1: putContextValue(ContextKey.of(name, Long.class), (long) index << 32); break;
+            case 2: putContextValue(ContextKey.of(name, Boolean.class), index % 3 == 0); break;
+            case 3: putContextValue(ContextKey.of(name, Double.class), index / 7d); break;
+            case 4: putContextValue(ContextKey.of(name, Float.class), index / 3f); break;
+            case 5: putContextValue(ContextKey.of(name, Short.class), (short) index); break;
+            case 6: putContextValue(ContextKey.of(name, Byte.class), (byte) index); break;
+            default: putContextValue(ContextKey.of(name, Character.class), (char) ('A' + index % 26)); break;
+        }
+        if (index % PAYLOAD_INTERVAL == 0) {
+            //Same handle as the payload passed on, the cache holds a single copy
+            putContextValue(ContextKey.of("stressPayload" + index, StressPayload.class, PAYLOAD_CODEC), payload);
+        }
+    }
+}
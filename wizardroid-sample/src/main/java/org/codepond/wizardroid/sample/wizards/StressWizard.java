@@ -0,0 +1,97 @@
+package org.codepond.wizardroid.sample.wizards;
+
+import android.view.View;
+import android.widget.TextView;
+import org.codepond.wizardroid.WizardFlow;
+import org.codepond.wizardroid.layouts.BasicWizardLayout;
+import org.codepond.wizardroid.sample.PerformanceHud;
+import org.codepond.wizardroid.sample.R;
+import org.codepond.wizardroid.sample.StressActivity;
+import org.codepond.wizardroid.sample.steps.StressStep;
+
+import java.util.HashMap;
+
+/**
+ * A sample to reproduce the behavior of the library at scale: hundreds of steps, a large and growing
+ * context and, optionally, steps grouped in sub-flows. The number of steps, the size of the payloads and the
+ * size of the sub-flows are set by the extras of {@link StressActivity}. The transitions made with the
+ * wizard buttons are measured by a {@link PerformanceHud}.
+ */
+public class StressWizard extends BasicWizardLayout {
+    /*
+        Flows are built once per configuration and shared by every instance of the wizard
+     */
+    private static final HashMap<String, WizardFlow> FLOWS = new HashMap<String, WizardFlow>();
+
+    private PerformanceHud hud;
+
+    public StressWizard() {
+        super();
+    }
+
+    @Override
+    public WizardFlow onSetup() {
+        final int stepCount = StressActivity.getStepCount(getActivity());
+        final int sectionSize = StressActivity.getSectionSize(getActivity());
+        final String config = stepCount + ":" + sectionSize;
+        WizardFlow flow = FLOWS.get(config);
+        if (flow == null) {
+            flow = createFlow(stepCount, sectionSize);
+            FLOWS.put(config, flow);
+        }
+        return flow;
+    }
+
+    private static WizardFlow createFlow(int stepCount, final int sectionSize) {
+        final WizardFlow.Builder builder = new WizardFlow.Builder();
+        if (sectionSize <= 0) {
+            addSteps(builder, stepCount);
+            return builder.create();
+        }
+        //Group the steps in sub-flows, only set up when the user reaches them
+        for (int remaining = stepCount; remaining > 0; remaining -= sectionSize) {
+            final int count = Math.min(sectionSize, remaining);
+            builder.addSubFlow(new WizardFlow.SubFlow() {
+                @Override
+                public WizardFlow onSetup() {
+                    return addSteps(new WizardFlow.Builder(), count).create();
+                }
+            });
+        }
+        return builder.create();
+    }
+
+    private static WizardFlow.Builder addSteps(WizardFlow.Builder builder, int count) {
+        for (int i = 0; i < count; i++) {
+            builder.addStep(StressStep.class);
+        }
+        return builder;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (hud == null) {
+            hud = new PerformanceHud((TextView) getActivity().findViewById(R.id.stress_hud));
+        }
+    }
+
+    /**
+     * Measure the transitions made with the wizard buttons
+     */
+    @Override
+    public void onClick(View v) {
+        hud.onTransitionStarted();
+        try {
+            super.onClick(v);
+        } finally {
+            hud.onTransitionFinished(wizard);
+        }
+    }
+
+    @Override
+    public void onWizardComplete() {
+        super.onWizardComplete();   //Make sure to first call the super method before anything else
+        getActivity().finish();     //Terminate the wizard
+    }
+}
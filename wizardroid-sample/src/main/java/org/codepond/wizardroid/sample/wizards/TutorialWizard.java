@@ -6,6 +6,14 @@ import org.codepond.wizardroid.sample.steps.TutorialStep1;
 import org.codepond.wizardroid.sample.steps.TutorialStep2;
 
 public class TutorialWizard extends BasicWizardLayout {
+    /*
+        The flow is built once and shared by every instance of the wizard,
+        each wizard runs its own session of it
+     */
+    private static final WizardFlow FLOW = new WizardFlow.Builder()
+            .addStep(TutorialStep1.class)           //Add your steps in the order you want them
+            .addStep(TutorialStep2.class)           //to appear and eventually call create()
+            .create();                              //to create the wizard flow.
 
     /**
      * Note that we inherit from {@link android.support.v4.app.Fragment} and therefore must have an empty constructor
@@ -20,10 +28,7 @@ public class TutorialWizard extends BasicWizardLayout {
      */
     @Override
     public WizardFlow onSetup() {
-        return new WizardFlow.Builder()
-                .addStep(TutorialStep1.class)           //Add your steps in the order you want them
-                .addStep(TutorialStep2.class)           //to appear and eventually call create()
-                .create();                              //to create the wizard flow.
+        return FLOW;
     }
 
     /*
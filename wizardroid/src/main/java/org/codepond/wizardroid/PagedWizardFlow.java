@@ -0,0 +1,260 @@
+package org.codepond.wizardroid;
+
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * WizardFlow for flows with a large amount of steps. Step metadata is loaded from a {@link StepProvider}
+ * in pages on demand and only a window of pages is kept in memory, the least recently used page being
+ * replaced when another one is needed. Completion state of the whole flow is kept in a compact bitmap so
+ * position, completion and persistence work across the full logical flow.
+ * Use {@link PagedWizardFlow.Builder} to create an instance of PagedWizardFlow.
+ */
+public class PagedWizardFlow extends WizardFlow {
+    private static final String STATE_COMPLETED_STEPS = "PagedWizardFlow:completed";
+
+    /**
+     * Window of step metadata loaded from the provider
+     */
+    private static class Page {
+        private final Class<? extends WizardStep>[] stepClasses;
+        private final boolean[] required;
+        private int index = -1;
+        private long lastUsed;
+
+        @SuppressWarnings("unchecked")
+        Page(int pageSize) {
+            stepClasses = new Class[pageSize];
+            required = new boolean[pageSize];
+        }
+    }
+
+    private final StepProvider provider;
+    private final int stepsCount;
+    private final int pageSize;
+    private final Page[] pages;
+    private long clock;
+    //Position of the first step which is required and incomplete, stepsCount if there is none, -1 if unknown
+    private int firstBlockingStep = -1;
+
+    private PagedWizardFlow(StepProvider provider, int stepsCount, int pageSize, int maxPages, long[] completed) {
+        super(new ArrayList<StepMetaData>(0), null, completed, true);
+        this.provider = provider;
+        this.stepsCount = stepsCount;
+        this.pageSize = pageSize;
+        this.pages = new Page[maxPages];
+    }
+
+    /**
+     * The session shares the provider and has its own window of pages
+     */
+    @Override
+    public WizardFlow newSession() {
+        return new PagedWizardFlow(provider, stepsCount, pageSize, pages.length, completed.clone());
+    }
+
+    @Override
+    public Class<? extends WizardStep> getStepClass(int stepPosition) {
+        return getPage(stepPosition).stepClasses[stepPosition % pageSize];
+    }
+
+    @Override
+    public boolean isStepRequired(int stepPosition) {
+        return getPage(stepPosition).required[stepPosition % pageSize];
+    }
+
+    /**
+     * Completing the first required and incomplete step moves the cut off step forward, setting a required step
+     * before it incomplete moves it back. Other changes don't affect the cut off step.
+     */
+    @Override
+    public void setStepCompleted(int stepPosition, boolean stepCompleted) {
+        super.setStepCompleted(stepPosition, stepCompleted);
+        if (firstBlockingStep < 0) {
+            return;
+        }
+        if (stepCompleted) {
+            if (stepPosition == firstBlockingStep) {
+                firstBlockingStep = findBlockingStep(stepPosition + 1);
+            }
+        }
+        else if (stepPosition < firstBlockingStep && isStepRequired(stepPosition)) {
+            firstBlockingStep = stepPosition;
+        }
+    }
+
+    @Override
+    public int getStepsCount() {
+        return stepsCount;
+    }
+
+    /**
+     * Paged flows are linear, steps provided by a {@link StepProvider} don't support branches
+     */
+    @Override
+    public int getNextStepPosition(int stepPosition, Bundle context) {
+        return stepPosition + 1;
+    }
+
+    /**
+     * Steps provided by a {@link StepProvider} are regular steps, paged flows don't embed sub-flows
+     */
+    @Override
+    SubFlow getSubFlow(int stepPosition) {
+        checkPosition(stepPosition);
+        return null;
+    }
+
+    @Override
+    boolean isSubFlowContextScoped(int stepPosition) {
+        checkPosition(stepPosition);
+        return false;
+    }
+
+    /**
+     * Only the pages in the window are collected, the provider isn't asked for the others
+     */
+    @Override
+    void collectLoadedStepClasses(Collection<Class<?>> stepClasses) {
+        for (Page page : pages) {
+            if (page == null || page.index < 0) {
+                continue;
+            }
+            final int loaded = Math.min(pageSize, stepsCount - page.index * pageSize);
+            for (int i = 0; i < loaded; i++) {
+                stepClasses.add(page.stepClasses[i]);
+            }
+        }
+    }
+
+    /**
+     * The cut off step is tracked as steps are completed, since finding it might require loading pages from
+     * the provider
+     */
+    @Override
+    int getAvailableStepsCount() {
+        if (firstBlockingStep < 0) {
+            firstBlockingStep = findBlockingStep(0);
+        }
+        return firstBlockingStep < stepsCount ? firstBlockingStep + 1 : stepsCount;
+    }
+
+    /**
+     * Paged flows can't grow at runtime, {@link Wizard#addStep(Class, boolean)} rejects them
+     */
+    @Override
+    void addStep(StepMetaData stepMetaData) {
+        throw new UnsupportedOperationException("Cannot add steps to a PagedWizardFlow. Steps are provided by its StepProvider.");
+    }
+
+    @Override
+    void persistFlow(Bundle state) {
+        state.putLongArray(STATE_COMPLETED_STEPS, completed);
+    }
+
+    @Override
+    void loadFlow(Bundle state) {
+        final long[] saved = state.getLongArray(STATE_COMPLETED_STEPS);
+        if (saved != null) {
+            System.arraycopy(saved, 0, completed, 0, Math.min(saved.length, completed.length));
+            firstBlockingStep = -1;
+        }
+    }
+
+    /**
+     * Find the first step which is required and incomplete, starting at the specified position. Completed steps
+     * are skipped using the bitmap, so only pages holding incomplete steps are loaded.
+     * @return the position of the step or stepsCount if there is none
+     */
+    private int findBlockingStep(int from) {
+        for (int i = from; i < stepsCount; i++) {
+            if (!isStepCompleted(i) && isStepRequired(i)) return i;
+        }
+        return stepsCount;
+    }
+
+    private Page getPage(int stepPosition) {
+        checkPosition(stepPosition);
+        final int index = stepPosition / pageSize;
+        Page victim = null;
+        for (int i = 0; i < pages.length; i++) {
+            final Page page = pages[i];
+            if (page == null) {
+                victim = pages[i] = new Page(pageSize);
+                break;
+            }
+            if (page.index == index) {
+                page.lastUsed = ++clock;
+                return page;
+            }
+            if (victim == null || page.lastUsed < victim.lastUsed) {
+                victim = page;
+            }
+        }
+        final int offset = index * pageSize;
+        provider.loadSteps(offset, Math.min(pageSize, stepsCount - offset), victim.stepClasses, victim.required);
+        victim.index = index;
+        victim.lastUsed = ++clock;
+        return victim;
+    }
+
+    /**
+     * Builder for {@link PagedWizardFlow}. Use this class in your wizard's {@link WizardFragment#onSetup()}
+     * to return an instance of PagedWizardFlow backed by a {@link StepProvider}.
+     */
+    public static class Builder {
+        private static final int DEFAULT_PAGE_SIZE = 32;
+        private static final int DEFAULT_MAX_PAGES = 3;
+
+        private final StepProvider provider;
+        private int pageSize = DEFAULT_PAGE_SIZE;
+        private int maxPages = DEFAULT_MAX_PAGES;
+
+        /**
+         * Construct a PagedWizardFlow.Builder
+         * @param provider the source of the steps' metadata
+         */
+        public Builder(StepProvider provider) {
+            this.provider = provider;
+        }
+
+        /**
+         * Set the amount of steps loaded from the provider at once
+         * @param pageSize page size, defaults to 32
+         * @return Builder for creating a wizard flow
+         */
+        public Builder setPageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * Set the amount of pages kept in memory
+         * @param maxPages amount of pages, defaults to 3
+         * @return Builder for creating a wizard flow
+         */
+        public Builder setMaxPages(int maxPages) {
+            this.maxPages = maxPages;
+            return this;
+        }
+
+        /**
+         * Create a new {@link PagedWizardFlow} object.
+         * @return PagedWizardFlow Instance of PagedWizardFlow
+         */
+        public PagedWizardFlow create() {
+            if (pageSize < 1 || maxPages < 1) {
+                throw new IllegalArgumentException("Cannot create PagedWizardFlow. Page size and amount of pages must be positive.");
+            }
+            final int stepsCount = provider.getStepsCount();
+            if (stepsCount > 0) {
+                return new PagedWizardFlow(provider, stepsCount, pageSize, maxPages, new long[(stepsCount + 63) / 64]);
+            }
+            else {
+                throw new RuntimeException("Cannot create PagedWizardFlow. The StepProvider has no steps.");
+            }
+        }
+    }
+}
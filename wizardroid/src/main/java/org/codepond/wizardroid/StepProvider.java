@@ -0,0 +1,22 @@
+package org.codepond.wizardroid;
+
+/**
+ * Source of step metadata for {@link PagedWizardFlow}. Implement this interface to feed the wizard
+ * with steps which are loaded on demand, e.g. from a database, instead of adding all of them up front
+ * with {@link WizardFlow.Builder}.
+ */
+public interface StepProvider {
+    /**
+     * Get the total amount of steps in the flow. The value must not change while the flow is in use.
+     */
+    int getStepsCount();
+
+    /**
+     * Load the metadata of a page of steps. Called on the thread navigating the wizard.
+     * @param offset position of the first step to load
+     * @param count amount of steps to load, never goes past {@link #getStepsCount()}
+     * @param stepClasses array to fill with the class of each step, starting at index 0
+     * @param required array to fill with the required flag of each step, starting at index 0
+     */
+    void loadSteps(int offset, int count, Class<? extends WizardStep>[] stepClasses, boolean[] required);
+}
@@ -0,0 +1,37 @@
+package org.codepond.wizardroid;
+
+import org.codepond.wizardroid.persistence.ContextVariableFields;
+
+import java.util.LinkedHashSet;
+import java.util.concurrent.Executor;
+
+/**
+ * Initializes step classes and resolves their {@link org.codepond.wizardroid.persistence.ContextVariable}
+ * fields on background threads, one task per class.
+ */
+class StepWarmUp {
+    private StepWarmUp() {
+    }
+
+    static void run(WizardFlow flow, Executor executor) {
+        //Collect the classes on the calling thread since flows aren't thread safe, only from the step
+        //metadata in memory so a paged flow doesn't load its pages here
+        final LinkedHashSet<Class<?>> stepClasses = new LinkedHashSet<Class<?>>();
+        flow.collectLoadedStepClasses(stepClasses);
+        final Executor runExecutor = executor != null ? executor : WorkerPool.get();
+        for (final Class<?> stepClass : stepClasses) {
+            runExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        //Run the static initializers
+                        Class.forName(stepClass.getName(), true, stepClass.getClassLoader());
+                    } catch (ClassNotFoundException ignored) {
+                        //Can't happen, the class is already loaded
+                    }
+                    ContextVariableFields.get(stepClass);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.codepond.wizardroid;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.codepond.wizardroid.validation.ValidationFailure;
+import org.codepond.wizardroid.validation.WizardValidator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the wizard's validators in parallel on a worker pool and delivers the gathered failures
+ * on the main thread.
+ */
+class ValidationRunner {
+    /**
+     * Listener notified on the main thread once all validators finished
+     */
+    interface Listener {
+        void onValidationFinished(List<ValidationFailure> failures);
+    }
+
+    private final ArrayList<WizardValidator> validators = new ArrayList<WizardValidator>();
+    private final ArrayList<Class<? extends WizardStep>> validatorSteps = new ArrayList<Class<? extends WizardStep>>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Executor executor;
+    private int generation;
+
+    void add(Class<? extends WizardStep> stepClass, WizardValidator validator) {
+        validatorSteps.add(stepClass);
+        validators.add(validator);
+    }
+
+    boolean isEmpty() {
+        return validators.isEmpty();
+    }
+
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Drop the results of the validation in progress, if any
+     */
+    void cancel() {
+        generation++;
+    }
+
+    /**
+     * Run the validators, each with its own copy of the context since Bundles aren't thread safe
+     * @param context the context to validate, already unparcelled
+     * @param listener notified on the main thread once all validators finished
+     */
+    void run(final Bundle context, final Listener listener) {
+        final int runGeneration = ++generation;
+        final int count = validators.size();
+        final ValidationFailure[] results = new ValidationFailure[count];
+        final AtomicInteger remaining = new AtomicInteger(count);
+        final Runnable deliver = new Runnable() {
+            @Override
+            public void run() {
+                if (runGeneration != generation) {
+                    return;
+                }
+                final ArrayList<ValidationFailure> failures = new ArrayList<ValidationFailure>();
+                for (ValidationFailure failure : results) {
+                    if (failure != null) {
+                        failures.add(failure);
+                    }
+                }
+                listener.onValidationFinished(failures);
+            }
+        };
+
+        final Executor runExecutor = executor != null ? executor : WorkerPool.get();
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final WizardValidator validator = validators.get(i);
+            final Class<? extends WizardStep> stepClass = validatorSteps.get(i);
+            final Bundle validatorContext = new Bundle(context);
+            runExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ValidationFailure failure;
+                    try {
+                        failure = validator.validate(validatorContext);
+                    } catch (Exception e) {
+                        failure = new ValidationFailure(String.valueOf(e.getMessage()));
+                    }
+                    if (failure != null && failure.getStepClass() == null && stepClass != null) {
+                        failure = failure.withStep(stepClass);
+                    }
+                    results[index] = failure;
+                    if (remaining.decrementAndGet() == 0) {
+                        mainHandler.post(deliver);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.codepond.wizardroid;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Base class for a lightweight, fragment-free wizard step hosted by {@link ViewWizard}. A ViewStep is a plain
+ * controller of a view: creating and switching steps doesn't go through the FragmentManager.
+ * Fields annotated with {@link org.codepond.wizardroid.persistence.ContextVariable} are bound from the wizard
+ * context before {@link #onEnter()} and written back to it when the wizard moves to the next step.
+ * As with {@link WizardStep} each inherited class must have an empty constructor.
+ */
+public abstract class ViewStep {
+    ViewWizard wizard;
+    //Flow session and position the step was created for
+    WizardFlow flow;
+    int position;
+    private View view;
+
+    /**
+     * Create the view of the step. Called once per step instance, the view is kept and reused while the user
+     * stays around the step. The wizard releases steps far from the current step and creates them again,
+     * restoring the view hierarchy state and the state saved by {@link #onSaveState(Bundle)}.
+     * @param inflater the inflater of the wizard's context
+     * @param container the view the step is shown in, don't attach the view to it
+     * @return the view of the step
+     */
+    protected abstract View onCreateView(LayoutInflater inflater, ViewGroup container);
+
+    /**
+     * Called when the step becomes the current step, after its context variables were bound
+     */
+    public void onEnter() {
+    }
+
+    /**
+     * Called when the wizard is about to go to the next step or the previous step.
+     * Override this method to handle input from the step.
+     * @param exitCode {@link WizardStep#EXIT_NEXT} or {@link WizardStep#EXIT_PREVIOUS}
+     */
+    public void onExit(int exitCode) {
+    }
+
+    /**
+     * Save the state of the step which isn't kept in context variables or in the view hierarchy
+     * @param state Bundle to save the state to
+     */
+    public void onSaveState(Bundle state) {
+    }
+
+    /**
+     * Restore the state saved by {@link #onSaveState(Bundle)}, called after the view was created
+     * @param state Bundle holding the saved state
+     */
+    public void onRestoreState(Bundle state) {
+    }
+
+    /**
+     * Notify the wizard that this step state had changed. Can be called from any thread, also after the wizard
+     * released the step. Ignored if the step isn't attached to a wizard.
+     * @param isStepCompleted true if this step is completed, false if it's incomplete
+     */
+    public final void notifyCompleted(boolean isStepCompleted) {
+        final ViewWizard wizard = this.wizard;
+        if (wizard != null) {
+            wizard.onStepCompleted(this, isStepCompleted);
+        }
+    }
+
+    /**
+     * Get the view of the step
+     * @return the view or null if it wasn't created yet
+     */
+    public final View getView() {
+        return view;
+    }
+
+    protected final Context getContext() {
+        return wizard.getHostContext();
+    }
+
+    protected final ViewWizard getWizard() {
+        return wizard;
+    }
+
+    View createView(LayoutInflater inflater, ViewGroup container) {
+        if (view == null) {
+            view = onCreateView(inflater, container);
+        }
+        return view;
+    }
+}
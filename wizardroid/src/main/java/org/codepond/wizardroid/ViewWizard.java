@@ -0,0 +1,676 @@
+package org.codepond.wizardroid;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcelable;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.codepond.wizardroid.persistence.ContextManagerImpl;
+import org.codepond.wizardroid.validation.ValidationFailure;
+import org.codepond.wizardroid.validation.WizardValidator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Fragment-free wizard engine for {@link ViewStep}s. Steps are switched by swapping their views in a container,
+ * without fragment transactions. The wizard navigates its own session of a {@link WizardFlow} built with
+ * {@link WizardFlow.Builder#addViewStep(Class)}, so branches, sub-flows, required steps and the completion state
+ * work the same way as with {@link Wizard}. The current step and its neighbours are kept and reused when the user
+ * navigates back to them, steps further away are released along with their views and recreated from their
+ * saved state, keeping memory bounded for long flows. Context variables are bound and persisted by a
+ * {@link ContextManagerImpl}, the context is saved along with the navigation state, the completion state and the
+ * state of the created steps by {@link #saveState(Bundle)}.
+ * <pre>
+ * wizard = new ViewWizard(new WizardFlow.Builder()
+ *         .addViewStep(NameStep.class)
+ *         .addViewStep(PhotoStep.class, true)
+ *         .create(), this, container, callbacks);
+ * wizard.start(savedInstanceState);
+ * </pre>
+ * Call {@link #saveState(Bundle)} from the host's onSaveInstanceState. The wizard is driven from the main thread.
+ */
+public class ViewWizard {
+    private static final String STATE_POSITION = "ViewWizard:position";
+    private static final String STATE_FLOW = "ViewWizard:flow";
+    private static final String STATE_CONTEXT = "ViewWizard:context";
+    private static final String STATE_STEPS = "ViewWizard:steps";
+    private static final String STATE_BRANCH_ORIGINS = "ViewWizard:branchOrigins";
+    private static final String STATE_BRANCH_TARGETS = "ViewWizard:branchTargets";
+    private static final String STATE_SUB_FLOWS = "ViewWizard:subFlows";
+    private static final String STATE_SUB_FLOW_ENTRY = "entry";
+    private static final String STATE_SUB_FLOW_PARENT_KEYS = "parentKeys";
+    private static final String STATE_SUB_FLOW_COMPLETED = "completed";
+    private static final String STATE_STEP = "state";
+    private static final String STATE_VIEWS = "views";
+    /**
+     * Steps further than this from the current step are released
+     */
+    private static final int KEPT_STEPS_DISTANCE = 1;
+
+    private final Context hostContext;
+    private final ViewGroup container;
+    private final Wizard.WizardCallbacks callbacks;
+    private final LayoutInflater inflater;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ContextManagerImpl contextManager = new ContextManagerImpl();
+    private final ValidationRunner validationRunner = new ValidationRunner();
+    //Steps of the current flow, by position
+    private final SparseArray<ViewStep> steps = new SparseArray<ViewStep>();
+    private final SparseArray<Bundle> releasedStates = new SparseArray<Bundle>();
+    //Parent flows of the sub-flow being navigated, innermost last
+    private final ArrayList<SubFlowFrame> subFlowFrames = new ArrayList<SubFlowFrame>(2);
+    //Positions of the sub-flow entries leading to the current flow, identifying it to the ContextManager
+    private int[] flowPath = new int[0];
+
+    private WizardFlow wizardFlow;
+    private int position = -1;
+    private int[] branchOrigins = new int[4];
+    private int[] branchTargets = new int[4];
+    private int branchCount;
+    private boolean validating;
+
+    /**
+     * Constructor for ViewWizard. Call {@link #start(Bundle)} to show the first step.
+     * @param wizardFlow the flow of {@link ViewStep}s, the wizard navigates a session of it, see
+     * {@link WizardFlow#newSession()}
+     * @param context the context used to inflate the steps' views
+     * @param container the view group the steps' views are shown in
+     * @param callbacks callbacks notified when the step changed and when the wizard completes
+     * @throws IllegalArgumentException if the flow doesn't hold {@link ViewStep}s
+     */
+    public ViewWizard(WizardFlow wizardFlow, Context context, ViewGroup container, Wizard.WizardCallbacks callbacks) {
+        checkViewFlow(wizardFlow);
+        this.wizardFlow = wizardFlow.newSession();
+        this.hostContext = context;
+        this.container = container;
+        this.callbacks = callbacks;
+        this.inflater = LayoutInflater.from(context);
+        contextManager.setContext(new Bundle());
+    }
+
+    private static void checkViewFlow(WizardFlow flow) {
+        if (flow instanceof PagedWizardFlow || !flow.isViewFlow()) {
+            throw new IllegalArgumentException("Cannot navigate the wizard flow. It doesn't hold ViewSteps, " +
+                    "add them with WizardFlow.Builder#addViewStep(stepClass).");
+        }
+    }
+
+    /**
+     * Show the first step, or restore the wizard saved by {@link #saveState(Bundle)}
+     * @param savedState the saved state or null to start a new wizard
+     */
+    public void start(Bundle savedState) {
+        if (savedState == null || !savedState.containsKey(STATE_POSITION)) {
+            final Bundle context = new Bundle();
+            wizardFlow.initContext(context);
+            contextManager.setContext(context);
+            showStep(0, true);
+            return;
+        }
+        final Bundle savedContext = savedState.getBundle(STATE_CONTEXT);
+        if (savedContext != null) {
+            contextManager.setContext(savedContext);
+        }
+        final Bundle flowState = savedState.getBundle(STATE_FLOW);
+        if (flowState != null) {
+            wizardFlow.loadFlow(flowState);
+        }
+        int savedPosition = savedState.getInt(STATE_POSITION);
+        int[] origins = savedState.getIntArray(STATE_BRANCH_ORIGINS);
+        int[] targets = savedState.getIntArray(STATE_BRANCH_TARGETS);
+        final ArrayList<Bundle> frames = savedState.getParcelableArrayList(STATE_SUB_FLOWS);
+        boolean restoreSteps = true;
+        if (frames != null) {
+            for (int i = 0; i < frames.size(); i++) {
+                final Bundle frameState = frames.get(i);
+                final int entryPosition = frameState.getInt(STATE_SUB_FLOW_ENTRY);
+                if (entryPosition >= wizardFlow.getStepsCount() || wizardFlow.getSubFlow(entryPosition) == null) {
+                    //The flow changed since the state was saved, resume at the entry of the missing sub-flow
+                    savedPosition = Math.min(entryPosition, wizardFlow.getStepsCount() - 1);
+                    origins = frameState.getIntArray(STATE_BRANCH_ORIGINS);
+                    targets = frameState.getIntArray(STATE_BRANCH_TARGETS);
+                    restoreSteps = false;
+                    break;
+                }
+                final WizardFlow childFlow = wizardFlow.getSubFlow(entryPosition).onSetup().newSession();
+                checkViewFlow(childFlow);
+                final long[] completed = frameState.getLongArray(STATE_SUB_FLOW_COMPLETED);
+                for (int j = 0; completed != null && j < childFlow.getStepsCount() && j < completed.length * 64; j++) {
+                    childFlow.setStepCompleted(j, (completed[j >> 6] & (1L << j)) != 0);
+                }
+                final ArrayList<String> parentKeys = frameState.getStringArrayList(STATE_SUB_FLOW_PARENT_KEYS);
+                final int[] frameOrigins = frameState.getIntArray(STATE_BRANCH_ORIGINS);
+                final int[] frameTargets = frameState.getIntArray(STATE_BRANCH_TARGETS);
+                subFlowFrames.add(new SubFlowFrame(wizardFlow, entryPosition,
+                        parentKeys != null ? new HashSet<String>(parentKeys) : null,
+                        Arrays.copyOf(frameOrigins, Math.max(4, frameOrigins.length)),
+                        Arrays.copyOf(frameTargets, Math.max(4, frameTargets.length)),
+                        frameOrigins.length));
+                wizardFlow = childFlow;
+            }
+        }
+        flowPath = getFlowPath();
+        if (origins != null && targets != null) {
+            branchOrigins = Arrays.copyOf(origins, Math.max(4, origins.length));
+            branchTargets = Arrays.copyOf(targets, Math.max(4, targets.length));
+            branchCount = origins.length;
+        }
+        final SparseArray<Bundle> savedSteps = savedState.getSparseParcelableArray(STATE_STEPS);
+        if (savedSteps != null && restoreSteps) {
+            for (int i = 0; i < savedSteps.size(); i++) {
+                releasedStates.put(savedSteps.keyAt(i), savedSteps.valueAt(i));
+            }
+        }
+        showStep(Math.max(0, Math.min(savedPosition, wizardFlow.getStepsCount() - 1)), true);
+    }
+
+    /**
+     * Save the wizard: position, branches taken, sub-flows entered, completion, context and the state of the
+     * steps of the current flow created so far
+     * @param outState Bundle to save the state to
+     */
+    public void saveState(Bundle outState) {
+        final ViewStep current = getCurrentStep();
+        if (current != null) {
+            contextManager.persistContextVariables(current);
+        }
+        outState.putInt(STATE_POSITION, Math.max(position, 0));
+        outState.putBundle(STATE_CONTEXT, contextManager.getSavedContext());
+        final Bundle flowState = new Bundle();
+        (subFlowFrames.isEmpty() ? wizardFlow : subFlowFrames.get(0).parentFlow).persistFlow(flowState);
+        outState.putBundle(STATE_FLOW, flowState);
+        outState.putIntArray(STATE_BRANCH_ORIGINS, Arrays.copyOf(branchOrigins, branchCount));
+        outState.putIntArray(STATE_BRANCH_TARGETS, Arrays.copyOf(branchTargets, branchCount));
+        if (!subFlowFrames.isEmpty()) {
+            final ArrayList<Bundle> frames = new ArrayList<Bundle>(subFlowFrames.size());
+            for (int i = 0; i < subFlowFrames.size(); i++) {
+                final SubFlowFrame frame = subFlowFrames.get(i);
+                final WizardFlow childFlow = i + 1 < subFlowFrames.size() ? subFlowFrames.get(i + 1).parentFlow : wizardFlow;
+                final Bundle frameState = new Bundle();
+                frameState.putInt(STATE_SUB_FLOW_ENTRY, frame.entryPosition);
+                frameState.putIntArray(STATE_BRANCH_ORIGINS, Arrays.copyOf(frame.branchOrigins, frame.branchCount));
+                frameState.putIntArray(STATE_BRANCH_TARGETS, Arrays.copyOf(frame.branchTargets, frame.branchCount));
+                if (frame.parentKeys != null) {
+                    frameState.putStringArrayList(STATE_SUB_FLOW_PARENT_KEYS, new ArrayList<String>(frame.parentKeys));
+                }
+                frameState.putLongArray(STATE_SUB_FLOW_COMPLETED, childFlow.completed);
+                frames.add(frameState);
+            }
+            outState.putParcelableArrayList(STATE_SUB_FLOWS, frames);
+        }
+        final SparseArray<Bundle> stepStates = new SparseArray<Bundle>();
+        for (int i = 0; i < releasedStates.size(); i++) {
+            //Released or not recreated since the last restore, keep its state
+            stepStates.put(releasedStates.keyAt(i), releasedStates.valueAt(i));
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            stepStates.put(steps.keyAt(i), saveStepState(steps.valueAt(i)));
+        }
+        outState.putSparseParcelableArray(STATE_STEPS, stepStates);
+    }
+
+    /**
+     * Advance the wizard to the next step, or complete it on the last step
+     */
+    public void goNext() {
+        final boolean traced = WizardTrace.beginSection("ViewWizard.goNext", getCurrentStep());
+        try {
+            goNextInternal();
+        } finally {
+            WizardTrace.endSection(traced);
+        }
+    }
+
+    private void goNextInternal() {
+        if (validating || !canGoNext()) {
+            return;
+        }
+        wizardFlow.setStepCompleted(position, true);
+        exitCurrentStep(WizardStep.EXIT_NEXT);
+        if (isLastStep()) {
+            if (validationRunner.isEmpty()) {
+                callbacks.onWizardComplete();
+            }
+            else {
+                validate();
+            }
+            return;
+        }
+        int currentPosition = position;
+        //Leave the sub-flows whose last step was completed
+        while (currentPosition == wizardFlow.getStepsCount() - 1 && !subFlowFrames.isEmpty()) {
+            currentPosition = exitSubFlow(true);
+        }
+        final int nextPosition = wizardFlow.getNextStepPosition(currentPosition, contextManager.getContext());
+        if (nextPosition != currentPosition + 1) {
+            pushBranch(currentPosition, nextPosition);
+        }
+        showStep(nextPosition, true);
+        callbacks.onStepChanged();
+    }
+
+    /**
+     * Take the wizard one step back
+     */
+    public void goBack() {
+        final boolean traced = WizardTrace.beginSection("ViewWizard.goBack", getCurrentStep());
+        try {
+            goBackInternal();
+        } finally {
+            WizardTrace.endSection(traced);
+        }
+    }
+
+    private void goBackInternal() {
+        cancelValidation();
+        if (isFirstStep()) {
+            return;
+        }
+        exitCurrentStep(WizardStep.EXIT_PREVIOUS);
+        int currentPosition = position;
+        //Leave the sub-flows the first step of which was left
+        while (currentPosition == 0 && !subFlowFrames.isEmpty()) {
+            currentPosition = exitSubFlow(false);
+        }
+        //Return to the step a branch was taken from, otherwise to the previous position
+        if (branchCount > 0 && branchTargets[branchCount - 1] == currentPosition) {
+            showStep(branchOrigins[--branchCount], false);
+        }
+        else {
+            showStep(currentPosition - 1, false);
+        }
+        callbacks.onStepChanged();
+    }
+
+    /**
+     * Register a validator checking the wizard context across several steps. Validators run in parallel on
+     * worker threads when the user finishes the wizard, and {@link Wizard.WizardCallbacks#onWizardComplete()} is
+     * only called if all of them pass. Failures are reported to callbacks implementing
+     * {@link Wizard.ValidationCallbacks}, the wizard stays on the last step.
+     * @param validator the validator
+     */
+    public void addValidator(WizardValidator validator) {
+        validationRunner.add(null, validator);
+    }
+
+    /**
+     * Set the executor used to run validators. By default a small shared pool of worker threads is used.
+     * @param executor the executor
+     */
+    public void setValidationExecutor(Executor executor) {
+        validationRunner.setExecutor(executor);
+    }
+
+    /**
+     * Check if validators are running
+     */
+    public boolean isValidating() {
+        return validating;
+    }
+
+    /**
+     * Cancel the validation in progress, if any. The wizard won't complete when it finishes.
+     */
+    public void cancelValidation() {
+        if (validating) {
+            validating = false;
+            validationRunner.cancel();
+        }
+    }
+
+    private void validate() {
+        validating = true;
+        final Bundle snapshot = new Bundle(contextManager.getContext());
+        //Unparcel a restored context here rather than concurrently in the validators
+        snapshot.size();
+        validationRunner.run(snapshot, new ValidationRunner.Listener() {
+            @Override
+            public void onValidationFinished(List<ValidationFailure> failures) {
+                validating = false;
+                if (failures.isEmpty()) {
+                    callbacks.onWizardComplete();
+                }
+                else if (callbacks instanceof Wizard.ValidationCallbacks) {
+                    ((Wizard.ValidationCallbacks) callbacks).onValidationFailed(failures);
+                }
+            }
+        });
+    }
+
+    /**
+     * Check if the wizard can proceed to the next step by verifying that the current step
+     * is completed
+     */
+    public boolean canGoNext() {
+        return !wizardFlow.isStepRequired(position) || wizardFlow.isStepCompleted(position);
+    }
+
+    /**
+     * Check if the specified step of the current flow is completed
+     * @param stepPosition the position of the step to be checked
+     */
+    public boolean isStepCompleted(int stepPosition) {
+        return wizardFlow.isStepCompleted(stepPosition);
+    }
+
+    /**
+     * Checks if the current step is the first step in the wizard, including the flows enclosing the current sub-flow
+     */
+    public boolean isFirstStep() {
+        if (position != 0) {
+            return false;
+        }
+        for (int i = 0; i < subFlowFrames.size(); i++) {
+            if (subFlowFrames.get(i).entryPosition != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the current step is the last step in the wizard, including the flows enclosing the current sub-flow
+     */
+    public boolean isLastStep() {
+        if (position != wizardFlow.getStepsCount() - 1) {
+            return false;
+        }
+        for (int i = 0; i < subFlowFrames.size(); i++) {
+            final SubFlowFrame frame = subFlowFrames.get(i);
+            if (frame.entryPosition != frame.parentFlow.getStepsCount() - 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the current step position
+     * @return the position of the step in the current flow
+     */
+    public int getCurrentStepPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the amount of steps in the current flow
+     */
+    public int getStepsCount() {
+        return wizardFlow.getStepsCount();
+    }
+
+    /**
+     * Gets the flow the wizard is navigating, which is the child flow while the wizard is inside a sub-flow
+     */
+    public WizardFlow getFlow() {
+        return wizardFlow;
+    }
+
+    /**
+     * Get the depth of the sub-flow being navigated
+     * @return 0 if the wizard is navigating the top-level flow
+     */
+    public int getSubFlowDepth() {
+        return subFlowFrames.size();
+    }
+
+    public ViewStep getCurrentStep() {
+        return position >= 0 ? steps.get(position) : null;
+    }
+
+    /**
+     * Gets the wizard context
+     * @return Bundle holding the context variables of the wizard
+     */
+    public Bundle getContext() {
+        return contextManager.getContext();
+    }
+
+    Context getHostContext() {
+        return hostContext;
+    }
+
+    /**
+     * Apply the completion change of a step. The change is applied to the flow and position the step was created
+     * for, so changes from steps which were released since are kept as well.
+     */
+    void onStepCompleted(final ViewStep step, final boolean isComplete) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onStepCompleted(step, isComplete);
+                }
+            });
+            return;
+        }
+        final WizardFlow flow = step.flow;
+        if (flow != null && flow.isStepCompleted(step.position) != isComplete) {
+            flow.setStepCompleted(step.position, isComplete);
+            if (flow == wizardFlow) {
+                callbacks.onStepChanged();
+            }
+        }
+    }
+
+    /**
+     * Exit the current step, persisting its context when the wizard moves forward
+     * @param exitCode {@link WizardStep#EXIT_NEXT} or {@link WizardStep#EXIT_PREVIOUS}
+     */
+    private void exitCurrentStep(int exitCode) {
+        final ViewStep step = getCurrentStep();
+        step.onExit(exitCode);
+        if (exitCode == WizardStep.EXIT_NEXT) {
+            contextManager.persistContextVariables(step);
+        }
+    }
+
+    private void pushBranch(int origin, int target) {
+        if (branchCount == branchOrigins.length) {
+            branchOrigins = Arrays.copyOf(branchOrigins, branchCount * 2);
+            branchTargets = Arrays.copyOf(branchTargets, branchCount * 2);
+        }
+        branchOrigins[branchCount] = origin;
+        branchTargets[branchCount] = target;
+        branchCount++;
+    }
+
+    /**
+     * Enter the sub-flow at the specified position of the current flow. The child flow is set up and becomes
+     * the current flow until the wizard leaves it.
+     * @param entryPosition the position of the sub-flow entry
+     * @param forward true to start at the first step of the child flow, false to start at its last step
+     */
+    private void enterSubFlow(int entryPosition, boolean forward) {
+        final WizardFlow childFlow = wizardFlow.getSubFlow(entryPosition).onSetup().newSession();
+        if (childFlow.getStepsCount() == 0) {
+            throw new IllegalStateException("The sub-flow at position " + entryPosition + " has no steps");
+        }
+        checkViewFlow(childFlow);
+        final HashSet<String> parentKeys = wizardFlow.isSubFlowContextScoped(entryPosition)
+                ? new HashSet<String>(contextManager.getContext().keySet())
+                : null;
+        subFlowFrames.add(new SubFlowFrame(wizardFlow, entryPosition, parentKeys,
+                branchOrigins, branchTargets, branchCount));
+        branchOrigins = new int[4];
+        branchTargets = new int[4];
+        branchCount = 0;
+        final int lastPosition = childFlow.getStepsCount() - 1;
+        if (!forward) {
+            //The user went through the child flow already, let them go forward again
+            for (int i = 0; i < lastPosition; i++) {
+                childFlow.setStepCompleted(i, true);
+            }
+        }
+        switchFlow(childFlow);
+        showStep(forward ? 0 : lastPosition, forward);
+    }
+
+    /**
+     * Leave the current sub-flow and return to its parent flow. The child flow and its steps are released.
+     * @param completed true if the child flow was completed, false if the user went back out of it
+     * @return the position of the sub-flow entry in the parent flow
+     */
+    private int exitSubFlow(boolean completed) {
+        final SubFlowFrame frame = subFlowFrames.remove(subFlowFrames.size() - 1);
+        if (frame.parentKeys != null) {
+            //Drop the variables the child flow added to the context
+            final ArrayList<String> childKeys = new ArrayList<String>();
+            for (String key : contextManager.getContext().keySet()) {
+                if (!frame.parentKeys.contains(key)) {
+                    childKeys.add(key);
+                }
+            }
+            contextManager.drop(childKeys);
+        }
+        branchOrigins = frame.branchOrigins;
+        branchTargets = frame.branchTargets;
+        branchCount = frame.branchCount;
+        if (completed) {
+            frame.parentFlow.setStepCompleted(frame.entryPosition, true);
+        }
+        switchFlow(frame.parentFlow);
+        position = frame.entryPosition;
+        return frame.entryPosition;
+    }
+
+    /**
+     * Make the flow the current flow, releasing the steps of the previous flow. Their saved states are dropped
+     * since they belong to the positions of the previous flow.
+     */
+    private void switchFlow(WizardFlow flow) {
+        wizardFlow = flow;
+        flowPath = getFlowPath();
+        steps.clear();
+        releasedStates.clear();
+        position = -1;
+    }
+
+    private void showStep(int stepPosition, boolean forward) {
+        if (wizardFlow.getSubFlow(stepPosition) != null) {
+            enterSubFlow(stepPosition, forward);
+            return;
+        }
+        final boolean traced = WizardTrace.beginSection("ViewWizard.showStep", wizardFlow.getViewStepClass(stepPosition));
+        try {
+            showStepInternal(stepPosition);
+        } finally {
+            WizardTrace.endSection(traced);
+        }
+    }
+
+    private void showStepInternal(int stepPosition) {
+        final ViewStep step = getStep(stepPosition);
+        contextManager.setCurrentStep(flowPath, stepPosition);
+        contextManager.loadContextVariables(step);
+        position = stepPosition;
+        final View view = step.getView();
+        if (container.getChildCount() != 1 || container.getChildAt(0) != view) {
+            container.removeAllViews();
+            container.addView(view);
+        }
+        releaseDistantSteps();
+        step.onEnter();
+    }
+
+    private ViewStep getStep(int stepPosition) {
+        ViewStep step = steps.get(stepPosition);
+        if (step == null) {
+            final Class<? extends ViewStep> stepClass = wizardFlow.getViewStepClass(stepPosition);
+            try {
+                step = stepClass.newInstance();
+            } catch (InstantiationException e) {
+                throw new RuntimeException("Cannot create step " + stepClass.getName() + ". Make sure it has a public empty constructor.", e);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Cannot create step " + stepClass.getName() + ". Make sure it has a public empty constructor.", e);
+            }
+            step.wizard = this;
+            step.flow = wizardFlow;
+            step.position = stepPosition;
+            final View view = step.createView(inflater, container);
+            final Bundle savedState = releasedStates.get(stepPosition);
+            if (savedState != null) {
+                releasedStates.remove(stepPosition);
+                final SparseArray<Parcelable> viewStates = savedState.getSparseParcelableArray(STATE_VIEWS);
+                if (viewStates != null && view != null) {
+                    view.restoreHierarchyState(viewStates);
+                }
+                final Bundle stepState = savedState.getBundle(STATE_STEP);
+                if (stepState != null) {
+                    step.onRestoreState(stepState);
+                }
+            }
+            steps.put(stepPosition, step);
+        }
+        return step;
+    }
+
+    /**
+     * Release the steps further than {@link #KEPT_STEPS_DISTANCE} from the current step and their views, keeping
+     * only their saved state to recreate them from
+     */
+    private void releaseDistantSteps() {
+        for (int i = steps.size() - 1; i >= 0; i--) {
+            if (Math.abs(steps.keyAt(i) - position) > KEPT_STEPS_DISTANCE) {
+                releasedStates.put(steps.keyAt(i), saveStepState(steps.valueAt(i)));
+                steps.removeAt(i);
+            }
+        }
+    }
+
+    private static Bundle saveStepState(ViewStep step) {
+        final Bundle state = new Bundle();
+        final Bundle stepState = new Bundle();
+        step.onSaveState(stepState);
+        if (!stepState.isEmpty()) {
+            state.putBundle(STATE_STEP, stepState);
+        }
+        final View view = step.getView();
+        if (view != null) {
+            final SparseArray<Parcelable> viewStates = new SparseArray<Parcelable>();
+            view.saveHierarchyState(viewStates);
+            state.putSparseParcelableArray(STATE_VIEWS, viewStates);
+        }
+        return state;
+    }
+
+    private int[] getFlowPath() {
+        final int[] path = new int[subFlowFrames.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = subFlowFrames.get(i).entryPosition;
+        }
+        return path;
+    }
+
+    /**
+     * Parent flow of a sub-flow being navigated
+     */
+    private static final class SubFlowFrame {
+        final WizardFlow parentFlow;
+        final int entryPosition;
+        //Context variables present when a scoped sub-flow was entered, null if the sub-flow shares the context
+        final HashSet<String> parentKeys;
+        final int[] branchOrigins;
+        final int[] branchTargets;
+        final int branchCount;
+
+        SubFlowFrame(WizardFlow parentFlow, int entryPosition, HashSet<String> parentKeys,
+                     int[] branchOrigins, int[] branchTargets, int branchCount) {
+            this.parentFlow = parentFlow;
+            this.entryPosition = entryPosition;
+            this.parentKeys = parentKeys;
+            this.branchOrigins = branchOrigins;
+            this.branchTargets = branchTargets;
+            this.branchCount = branchCount;
+        }
+    }
+}
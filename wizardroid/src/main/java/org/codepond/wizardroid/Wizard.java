@@ -1,14 +1,34 @@
 package org.codepond.wizardroid;
 
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
 import android.support.v4.app.*;
 import android.support.v4.app.FragmentManager.OnBackStackChangedListener;
+import android.support.v4.util.LruCache;
 import android.support.v4.view.ViewPager;
+import android.util.Log;
 import android.view.ViewGroup;
 
+import org.codepond.wizardroid.persistence.ContextKey;
 import org.codepond.wizardroid.persistence.ContextManager;
+import org.codepond.wizardroid.persistence.ContextObserver;
+import org.codepond.wizardroid.persistence.ObservableContextManager;
+import org.codepond.wizardroid.persistence.ScopedContextManager;
+import org.codepond.wizardroid.persistence.TypedContextManager;
+import org.codepond.wizardroid.validation.ValidationFailure;
+import org.codepond.wizardroid.validation.WizardValidator;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The engine of the Wizard. This class controls the flow of the wizard
@@ -16,6 +36,8 @@ import java.util.List;
  * extend {@link WizardFragment} instead of using this class directly and make calls to the wizard API
  * via {@link org.codepond.wizardroid.WizardFragment#wizard} field. Use this
  * class only if you wish to create a custom WizardFragment to control the wizard.
+ * The wizard is driven from the main thread. {@link #onStepCompleted(boolean)}, {@link #canGoNext()},
+ * {@link #isStepCompleted(int)} and {@link #getCurrentStepPosition()} may be called from any thread.
  */
 public class Wizard {
     /**
@@ -34,18 +56,105 @@ public class Wizard {
         public void onStepChanged();
     }
 
+    /**
+     * Optional interface for validation events. Implement it in addition to {@link WizardCallbacks}
+     * to be notified when validation at completion fails.
+     */
+    public static interface ValidationCallbacks {
+        /**
+         * Event called on the main thread when validators registered with {@link #addValidator(WizardValidator)}
+         * failed at completion, after the wizard navigated to the first failing step. The wizard only navigates
+         * to steps of the flow it is in, failures of steps in a parent or child flow are reported but don't move
+         * the wizard.
+         * @param failures the failures reported by the validators
+         */
+        public void onValidationFailed(List<ValidationFailure> failures);
+    }
+
     private static final String TAG = Wizard.class.getSimpleName();
+    private static final int DEFAULT_SAVED_STEP_STATES = 16;
+    //Budget of the saved step states written to the instance state, which goes through a size limited transaction
+    private static final int MAX_SAVED_STEP_STATES_BYTES = 64 * 1024;
+    private static final String STATE_POSITION = "wizard:position";
+    private static final String STATE_BRANCH_ORIGINS = "wizard:branchOrigins";
+    private static final String STATE_BRANCH_TARGETS = "wizard:branchTargets";
+    private static final String STATE_SUB_FLOWS = "wizard:subFlows";
+    private static final String STATE_SUB_FLOW_ENTRY = "entry";
+    private static final String STATE_SUB_FLOW_PARENT_KEYS = "parentKeys";
+    private static final String STATE_SUB_FLOW_COMPLETED = "completed";
+    private static final String STATE_STEP_STATES = "wizard:stepStates";
+    private static final WizardCallbacks DETACHED_CALLBACKS = new WizardCallbacks() {
+        @Override
+        public void onWizardComplete() {
+        }
+
+        @Override
+        public void onStepChanged() {
+        }
+    };
 	private WizardFlow wizardFlow;
     private final ContextManager contextManager;
-    private final WizardCallbacks callbacks;
-    private final FragmentManager mFragmentManager;
+    private WizardCallbacks callbacks;
+    private FragmentManager mFragmentManager;
+    private ViewPager mPager;
+    private WizardPagerAdapter mPagerAdapter;
 
     private boolean fingerSlide;
+    private boolean jumping;
+    private boolean validating;
+    private final ValidationRunner validationRunner = new ValidationRunner();
     private int backStackEntryCount;
 
+    //Identifies the events of this wizard in the process wide event recorder
+    private final int recorderId = WizardEventRecorder.newSourceId();
     private int position;
+    //Snapshot of the state for reads from other threads, replaced on the main thread after every change
+    private volatile State state;
+    //Step completion updates from other threads, applied on the main thread in order
+    private final ConcurrentLinkedQueue<StepUpdate> pendingUpdates = new ConcurrentLinkedQueue<StepUpdate>();
+    private final AtomicBoolean drainPosted = new AtomicBoolean();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable drainUpdates = new Runnable() {
+        @Override
+        public void run() {
+            drainPosted.set(false);
+            applyPendingUpdates();
+        }
+    };
+    private int[] branchOrigins = new int[4];
+    private int[] branchTargets = new int[4];
+    private int branchCount;
+    //Parent flows of the sub-flow being navigated, innermost last
+    private final ArrayList<SubFlowFrame> subFlowFrames = new ArrayList<SubFlowFrame>(2);
+    //Positions of the sub-flow entries leading to the current flow, identifying it to the ContextManager
+    private int[] flowPath = new int[0];
+    private boolean flowSwitched;
     private WizardStep stepStepStep;
+    //Saved state of the steps the user left, restored when the step is shown again
+    private LruCache<Integer, Fragment.SavedState> savedStepStates =
+            new LruCache<Integer, Fragment.SavedState>(DEFAULT_SAVED_STEP_STATES);
 
+    /**
+     * Preload the step classes of a flow in parallel on background threads: run their static initializers
+     * and resolve their {@link org.codepond.wizardroid.persistence.ContextVariable} fields, so the first
+     * transition to each step doesn't pay for it. Call from Application.onCreate() or when the wizard host
+     * is created. Returns immediately. Only the steps whose metadata is in memory are preloaded, a
+     * {@link PagedWizardFlow} doesn't load its pages for it.
+     * @param flow the flow to warm up
+     */
+    public static void warmUp(WizardFlow flow) {
+        StepWarmUp.run(flow, null);
+    }
+
+    /**
+     * Preload the step classes of a flow on the given executor
+     * @param flow the flow to warm up
+     * @param executor the executor running one task per step class
+     * @see #warmUp(WizardFlow)
+     */
+    public static void warmUp(WizardFlow flow, Executor executor) {
+        StepWarmUp.run(flow, executor);
+    }
 
     /**
      * Constructor for Wizard
@@ -59,17 +168,299 @@ public class Wizard {
                   final WizardCallbacks callbacks,
                   final FragmentActivity activity,
                   final FragmentManager fmanager) {
+        this(wizardFlow, contextManager, callbacks, activity, fmanager, null);
+    }
+
+    /**
+     * Constructor for Wizard hosting its steps in a {@link ViewPager}. Adjacent steps are kept alive
+     * according to the pager's offscreen page limit, see {@link #setOffscreenPageLimit(int)}.
+     * @param wizardFlow WizardFlow instance. See WizardFlow.Builder for more information on creating WizardFlow objects.
+     * @param contextManager ContextManager instance would normally be {@link org.codepond.wizardroid.persistence.ContextManagerImpl}
+     * @param callbacks implementation of WizardCallbacks
+     * @param activity the hosting activity
+     * @param pager the ViewPager hosting the steps or null to replace step fragments directly
+     * @throws IllegalArgumentException if the flow holds {@link ViewStep}s, which are hosted by a {@link ViewWizard}
+     */
+    public Wizard(final WizardFlow wizardFlow,
+                  final ContextManager contextManager,
+                  final WizardCallbacks callbacks,
+                  final FragmentActivity activity,
+                  final FragmentManager fmanager,
+                  final ViewPager pager) {
+        checkFragmentFlow(wizardFlow);
         this.wizardFlow = wizardFlow;
         this.contextManager = contextManager;
-        this.callbacks = callbacks;
+        attach(callbacks, fmanager, pager);
+        publishState();
+    }
 
+    /**
+     * Attach the wizard to a new host, e.g. after a configuration change. The wizard keeps its flow, context,
+     * position and cached step state, only the views and the fragment manager are replaced.
+     * @param callbacks implementation of WizardCallbacks
+     * @param fmanager the fragment manager hosting the steps
+     * @param pager the ViewPager hosting the steps or null to replace step fragments directly
+     */
+    void attach(final WizardCallbacks callbacks, final FragmentManager fmanager, final ViewPager pager) {
+        this.callbacks = callbacks;
         this.mFragmentManager = fmanager;
+        this.mPager = pager;
+
+        if (mPager != null) {
+            setPagerAdapter(position);
+            mPager.setOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+                @Override
+                public void onPageSelected(int newPosition) {
+                    if (newPosition == position) {
+                        //Page was selected programmatically by setCurrentStep
+                        return;
+                    }
+                    fingerSlide = true;
+                    try {
+                        if (newPosition > position) {
+                            goNext();
+                        } else {
+                            goBack();
+                        }
+                    } finally {
+                        fingerSlide = false;
+                    }
+                    //The wizard refused to move, snap the pager back to the current step
+                    if (newPosition != position) {
+                        mPager.setCurrentItem(position);
+                    }
+                }
+            });
+            if (position != 0) {
+                showPage(position, false);
+            }
+        }
+        else {
+            mPagerAdapter = null;
+            //The fragment manager restored the step shown before the configuration change, if any
+            final Fragment step = fmanager.findFragmentById(android.R.id.content);
+            stepStepStep = step instanceof WizardStep ? (WizardStep) step : null;
+        }
+    }
+
+    /**
+     * Detach the wizard from its host when the host goes away but the wizard is retained. Until the wizard
+     * is attached again, completion changes are applied and navigation only updates the position.
+     */
+    void detach() {
+        cancelValidation();
+        if (mPager != null) {
+            mPager.setOnPageChangeListener(null);
+        }
+        callbacks = DETACHED_CALLBACKS;
+        mFragmentManager = null;
+        mPager = null;
+        mPagerAdapter = null;
+        stepStepStep = null;
+    }
+
+    /**
+     * Check if the wizard is attached to a host
+     */
+    boolean isAttached() {
+        return mFragmentManager != null;
+    }
+
+    /**
+     * Set the number of steps that should be retained to either side of the current step
+     * when the wizard is hosted in a {@link ViewPager}. Steps beyond this limit are destroyed
+     * and only their saved state is kept. Has no effect if the wizard is not hosted in a ViewPager.
+     * @param limit how many steps will be kept offscreen on either side
+     */
+    public void setOffscreenPageLimit(int limit) {
+        if (mPager != null) {
+            mPager.setOffscreenPageLimit(limit);
+        }
+    }
+
+    /**
+     * Save the navigation state of the wizard: the current position, the branches taken, the sub-flows
+     * entered and the saved state of the most recently left steps, up to 64KB of it. The completion of the
+     * top-level flow and the wizard context are saved separately, see
+     * {@link WizardFragment#onSaveInstanceState(Bundle)}.
+     * @param outState Bundle to save the state to
+     */
+    public void saveInstanceState(Bundle outState) {
+        outState.putInt(STATE_POSITION, position);
+        outState.putIntArray(STATE_BRANCH_ORIGINS, Arrays.copyOf(branchOrigins, branchCount));
+        outState.putIntArray(STATE_BRANCH_TARGETS, Arrays.copyOf(branchTargets, branchCount));
+        if (!subFlowFrames.isEmpty()) {
+            final ArrayList<Bundle> frames = new ArrayList<Bundle>(subFlowFrames.size());
+            for (int i = 0; i < subFlowFrames.size(); i++) {
+                final SubFlowFrame frame = subFlowFrames.get(i);
+                final WizardFlow childFlow = i + 1 < subFlowFrames.size() ? subFlowFrames.get(i + 1).parentFlow : wizardFlow;
+                final Bundle frameState = new Bundle();
+                frameState.putInt(STATE_SUB_FLOW_ENTRY, frame.entryPosition);
+                frameState.putIntArray(STATE_BRANCH_ORIGINS, Arrays.copyOf(frame.branchOrigins, frame.branchCount));
+                frameState.putIntArray(STATE_BRANCH_TARGETS, Arrays.copyOf(frame.branchTargets, frame.branchCount));
+                if (frame.parentKeys != null) {
+                    frameState.putStringArrayList(STATE_SUB_FLOW_PARENT_KEYS, new ArrayList<String>(frame.parentKeys));
+                }
+                frameState.putLongArray(STATE_SUB_FLOW_COMPLETED, childFlow.completed);
+                frames.add(frameState);
+            }
+            outState.putParcelableArrayList(STATE_SUB_FLOWS, frames);
+        }
+        if (savedStepStates != null && savedStepStates.size() > 0) {
+            outState.putBundle(STATE_STEP_STATES, getRecentStepStates(MAX_SAVED_STEP_STATES_BYTES));
+        }
+    }
+
+    /**
+     * Get the saved states of the most recently left steps, leaving out the older ones once their parceled
+     * size exceeds the budget
+     * @param maxBytes the budget of the parceled states
+     * @return Bundle holding the states keyed by step position
+     */
+    private Bundle getRecentStepStates(int maxBytes) {
+        final Bundle stepStates = new Bundle();
+        //The snapshot is ordered from the least recently left step
+        final List<Map.Entry<Integer, Fragment.SavedState>> entries =
+                new ArrayList<Map.Entry<Integer, Fragment.SavedState>>(savedStepStates.snapshot().entrySet());
+        int bytes = 0;
+        final Parcel parcel = Parcel.obtain();
+        try {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                parcel.setDataSize(0);
+                parcel.setDataPosition(0);
+                parcel.writeParcelable(entries.get(i).getValue(), 0);
+                bytes += parcel.dataSize();
+                if (bytes > maxBytes) {
+                    break;
+                }
+                stepStates.putParcelable(String.valueOf(entries.get(i).getKey()), entries.get(i).getValue());
+            }
+        } finally {
+            parcel.recycle();
+        }
+        return stepStates;
+    }
+
+    /**
+     * Restore the state saved by {@link #saveInstanceState(Bundle)}, e.g. after the process was killed.
+     * The wizard goes straight to the saved position, only setting up the sub-flows on the way and only
+     * creating the current step. The steps before it are created when the user goes back to them.
+     * Call right after constructing the wizard, once the flow completion and the context were restored.
+     * @param savedState Bundle holding the saved state, ignored if it doesn't hold a wizard state
+     */
+    public void restoreInstanceState(Bundle savedState) {
+        if (savedState == null || !savedState.containsKey(STATE_POSITION)) {
+            return;
+        }
+        final boolean traced = WizardTrace.beginSection("Wizard.restoreInstanceState", null);
+        try {
+            restoreInstanceStateInternal(savedState);
+        } finally {
+            WizardTrace.endSection(traced);
+        }
     }
 
+    private void restoreInstanceStateInternal(Bundle savedState) {
+        int savedPosition = savedState.getInt(STATE_POSITION);
+        int[] origins = savedState.getIntArray(STATE_BRANCH_ORIGINS);
+        int[] targets = savedState.getIntArray(STATE_BRANCH_TARGETS);
+        final WizardFlow rootFlow = wizardFlow;
+        final ArrayList<Bundle> frames = savedState.getParcelableArrayList(STATE_SUB_FLOWS);
+        if (frames != null) {
+            final ClassLoader classLoader = getClass().getClassLoader();
+            for (int i = 0; i < frames.size(); i++) {
+                final Bundle frameState = frames.get(i);
+                frameState.setClassLoader(classLoader);
+                final int entryPosition = frameState.getInt(STATE_SUB_FLOW_ENTRY);
+                if (entryPosition >= wizardFlow.getStepsCount() || wizardFlow.getSubFlow(entryPosition) == null) {
+                    //The flow changed since the state was saved, resume at the entry of the missing sub-flow
+                    savedPosition = Math.min(entryPosition, wizardFlow.getStepsCount() - 1);
+                    origins = frameState.getIntArray(STATE_BRANCH_ORIGINS);
+                    targets = frameState.getIntArray(STATE_BRANCH_TARGETS);
+                    break;
+                }
+                final WizardFlow childFlow = wizardFlow.getSubFlow(entryPosition).onSetup().newSession();
+                final long[] completed = frameState.getLongArray(STATE_SUB_FLOW_COMPLETED);
+                for (int j = 0; completed != null && j < childFlow.getStepsCount() && j < completed.length * 64; j++) {
+                    childFlow.setStepCompleted(j, (completed[j >> 6] & (1L << j)) != 0);
+                }
+                final ArrayList<String> parentKeys = frameState.getStringArrayList(STATE_SUB_FLOW_PARENT_KEYS);
+                final int[] frameOrigins = frameState.getIntArray(STATE_BRANCH_ORIGINS);
+                final int[] frameTargets = frameState.getIntArray(STATE_BRANCH_TARGETS);
+                subFlowFrames.add(new SubFlowFrame(wizardFlow, entryPosition,
+                        parentKeys != null ? new HashSet<String>(parentKeys) : null,
+                        Arrays.copyOf(frameOrigins, Math.max(4, frameOrigins.length)),
+                        Arrays.copyOf(frameTargets, Math.max(4, frameTargets.length)),
+                        frameOrigins.length));
+                wizardFlow = childFlow;
+            }
+        }
+        branchOrigins = Arrays.copyOf(origins, Math.max(4, origins.length));
+        branchTargets = Arrays.copyOf(targets, Math.max(4, targets.length));
+        branchCount = origins.length;
+        if (wizardFlow != rootFlow) {
+            switchFlow(wizardFlow);
+        }
+        final Bundle stepStates = savedState.getBundle(STATE_STEP_STATES);
+        if (stepStates != null && savedStepStates != null) {
+            stepStates.setClassLoader(getClass().getClassLoader());
+            for (String key : stepStates.keySet()) {
+                savedStepStates.put(Integer.valueOf(key), (Fragment.SavedState) stepStates.getParcelable(key));
+            }
+        }
+        position = Math.max(0, Math.min(savedPosition, wizardFlow.getStepsCount() - 1));
+        if (wizardFlow.getSubFlow(position) != null || (mPager == null && stepStepStep == null)) {
+            //The fragment manager didn't restore the step, or the flow changed since the state was saved
+            setCurrentStep(position, true);
+            return;
+        }
+        flowSwitched = false;
+        if (mPager != null) {
+            showPage(position, false);
+        }
+        publishState();
+        if (contextManager instanceof ScopedContextManager) {
+            ((ScopedContextManager) contextManager).setCurrentStep(flowPath, position);
+        }
+    }
+
+    /**
+     * Set the number of steps whose saved state is kept when the wizard replaces step fragments directly.
+     * The view hierarchy state and the saved instance state of a step the user leaves are kept, and restored
+     * when the step is shown again, so scroll positions and partial input survive going back without
+     * keeping the fragment alive. The least recently left steps are forgotten first.
+     * Only the most recently left steps whose states fit in 64KB are written to the instance state.
+     * When the wizard is hosted in a {@link ViewPager} the pager keeps the saved state of the steps instead.
+     * @param count how many saved step states are kept, 0 to disable the cache
+     */
+    public void setSavedStepStateLimit(int count) {
+        if (count <= 0) {
+            savedStepStates = null;
+        }
+        else {
+            final LruCache<Integer, Fragment.SavedState> states = new LruCache<Integer, Fragment.SavedState>(count);
+            if (savedStepStates != null) {
+                //Keep the saved states in their access order
+                for (Map.Entry<Integer, Fragment.SavedState> entry : savedStepStates.snapshot().entrySet()) {
+                    states.put(entry.getKey(), entry.getValue());
+                }
+            }
+            savedStepStates = states;
+        }
+    }
+
+    /**
+     * Add a step at the end of the current flow
+     * @param step the class of the step
+     * @param required true if the step must be completed before the user can move forward
+     * @throws UnsupportedOperationException if the current flow is a {@link PagedWizardFlow}, whose steps
+     * are provided by its {@link StepProvider}
+     */
     public void addStep(Class<? extends WizardStep> step, boolean required) {
-        final WizardFlow.StepMetaData metadata = new WizardFlow.StepMetaData(required, step);
-        if (!wizardFlow.steps.contains(metadata))
-            wizardFlow.steps.add(metadata);
+        if (wizardFlow instanceof PagedWizardFlow) {
+            throw new UnsupportedOperationException("Cannot add step " + step.getSimpleName() + ". The wizard flow is a PagedWizardFlow, add the step to its StepProvider instead.");
+        }
+        wizardFlow.addStep(new WizardFlow.StepMetaData(required, step));
     }
 
     public void retract() {
@@ -91,67 +482,554 @@ public class Wizard {
         //Refresh the UI
         callbacks.onStepChanged();
 
-        //mPager.getAdapter().notifyDataSetChanged();
+        //Let the ViewPager know that the cut off step might have changed
+        if (mPagerAdapter != null) {
+            mPagerAdapter.notifyDataSetChanged();
+        }
     }
 
+    /**
+     * Mark the current step completed or incomplete. Can be called from any thread, changes made from other
+     * threads are applied on the main thread in the order they were made.
+     * @param isComplete true if the step is completed, false if it's incomplete
+     */
     public void onStepCompleted(boolean isComplete) {
+        onStepCompleted(null, isComplete);
+    }
+
+    /**
+     * Mark a step completed or incomplete, see {@link #onStepCompleted(boolean)}
+     * @param step the step or null for the step which is current when the change is applied
+     */
+    void onStepCompleted(WizardStep step, boolean isComplete) {
+        if (isMainThread() && pendingUpdates.isEmpty()) {
+            applyStepCompleted(step, isComplete);
+            return;
+        }
+        pendingUpdates.offer(new StepUpdate(step, isComplete));
+        if (isMainThread()) {
+            applyPendingUpdates();
+        }
+        else if (drainPosted.compareAndSet(false, true)) {
+            mainHandler.post(drainUpdates);
+        }
+    }
+
+    private void applyPendingUpdates() {
+        StepUpdate update;
+        while ((update = pendingUpdates.poll()) != null) {
+            applyStepCompleted(update.step, update.completed);
+        }
+    }
+
+    private void applyStepCompleted(WizardStep step, boolean isComplete) {
         int stepPosition = getCurrentStepPosition();
+        if (step != null && step != getCurrentStep()) {
+            //The user moved on since the step sent the update
+            stepPosition = mPagerAdapter != null ? mPagerAdapter.getStepPosition(step) : -1;
+            if (stepPosition < 0) {
+                return;
+            }
+        }
 
         //Check if the step is already marked as completed/incomplete
         if (wizardFlow.isStepCompleted(stepPosition) != isComplete) {
             wizardFlow.setStepCompleted(stepPosition, isComplete);
+            WizardEventRecorder.record(recorderId, WizardEventRecorder.STEP_COMPLETED, stepPosition, isComplete ? 1 : 0);
+            publishState();
             onChanged();
         }
     }
 
+    /**
+     * Publish the current state for reads from other threads
+     */
+    private void publishState() {
+        state = new State(position, canGoNext(position), wizardFlow.completed.clone());
+    }
+
+    private static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
     /**
 	 * Advance the wizard to the next step
 	 */
 	public void goNext() {
-        if (canGoNext()) {
+        final boolean traced = WizardTrace.beginSection("Wizard.goNext", getCurrentStep());
+        final long startTime = WizardEventRecorder.start();
+        final int startPosition = position;
+        try {
+            goNextInternal();
+        } finally {
+            WizardEventRecorder.record(recorderId, WizardEventRecorder.GO_NEXT, startPosition, position, startTime);
+            WizardTrace.endSection(traced);
+        }
+    }
+
+    private void goNextInternal() {
+        if (!validating && canGoNext()) {
             wizardFlow.setStepCompleted(getCurrentStepPosition(), true);
-            getCurrentStep().onExit(WizardStep.EXIT_NEXT);
-            contextManager.persistStepContext(getCurrentStep());
-            //Tell the ViewPager to re-create the fragments, causing it to bind step context
-            //mPager.getAdapter().notifyDataSetChanged();
+            publishState();
+            exitCurrentStep(WizardStep.EXIT_NEXT);
+            //Tell the ViewPager to re-create the steps ahead, causing them to bind the updated step context.
+            //Steps behind the current one are kept alive as is.
+            if (mPagerAdapter != null) {
+                mPagerAdapter.invalidateFrom(getCurrentStepPosition() + 1);
+            }
 
             if (isLastStep()) {
-                callbacks.onWizardComplete();
+                if (validationRunner.isEmpty()) {
+                    WizardEventRecorder.record(recorderId, WizardEventRecorder.WIZARD_COMPLETE, position, 0);
+                    callbacks.onWizardComplete();
+                }
+                else {
+                    validate();
+                }
             }
             else {
-                setCurrentStep(getCurrentStepPosition() + 1);
+                int currentPosition = getCurrentStepPosition();
+                //Leave the sub-flows whose last step was completed
+                while (currentPosition == wizardFlow.getStepsCount() - 1 && !subFlowFrames.isEmpty()) {
+                    currentPosition = exitSubFlow(true);
+                }
+                final int nextPosition = wizardFlow.getNextStepPosition(currentPosition, contextManager.getContext());
+                if (nextPosition != currentPosition + 1) {
+                    pushBranch(currentPosition, nextPosition);
+                }
+                setCurrentStep(nextPosition);
 
                 //Notify the hosting Fragment/Activity that the step has changed so it might want to update the controls accordingly
                 callbacks.onStepChanged();
             }
-	    }
+        }
     }
 
     /**
 	 * Takes the wizard one step back
 	 */
 	public void goBack() {
+        final boolean traced = WizardTrace.beginSection("Wizard.goBack", getCurrentStep());
+        final long startTime = WizardEventRecorder.start();
+        final int startPosition = position;
+        try {
+            goBackInternal();
+        } finally {
+            WizardEventRecorder.record(recorderId, WizardEventRecorder.GO_BACK, startPosition, position, startTime);
+            WizardTrace.endSection(traced);
+        }
+	}
+
+    private void goBackInternal() {
+        cancelValidation();
         if (!isFirstStep()) {
-            getCurrentStep().onExit(WizardStep.EXIT_PREVIOUS);
-            //Check if the user dragged the page or pressed a button.
-            //If the page was dragged then the ViewPager will handle the current step.
-            //Otherwise, set the current step programmatically.
-            if (!fingerSlide) {
-                setCurrentStep(getCurrentStepPosition() - 1);
+            exitCurrentStep(WizardStep.EXIT_PREVIOUS);
+            int currentPosition = getCurrentStepPosition();
+            //Leave the sub-flows the first step of which was left
+            while (currentPosition == 0 && !subFlowFrames.isEmpty()) {
+                currentPosition = exitSubFlow(false);
+            }
+            //Return to the step a branch was taken from, otherwise to the previous position
+            if (branchCount > 0 && branchTargets[branchCount - 1] == currentPosition) {
+                setCurrentStep(branchOrigins[--branchCount]);
+            }
+            else {
+                setCurrentStep(currentPosition - 1);
             }
             //Notify the hosting Fragment/Activity that the step has changed so it might want to update the controls accordingly
             callbacks.onStepChanged();
         }
-	}
+    }
 	
+    /**
+     * Register a validator checking the wizard context across several steps. Validators run in parallel on
+     * worker threads when the user finishes the wizard, and {@link WizardCallbacks#onWizardComplete()} is
+     * only called if all of them pass.
+     * @param validator the validator
+     */
+    public void addValidator(WizardValidator validator) {
+        validationRunner.add(null, validator);
+    }
+
+    /**
+     * Register a validator of a single step. See {@link #addValidator(WizardValidator)}.
+     * @param stepClass the step whose input is validated, failures send the user back to this step
+     * @param validator the validator
+     */
+    public void addValidator(Class<? extends WizardStep> stepClass, WizardValidator validator) {
+        validationRunner.add(stepClass, validator);
+    }
+
+    /**
+     * Set the executor used to run validators. By default a small shared pool of worker threads is used.
+     * @param executor the executor
+     */
+    public void setValidationExecutor(Executor executor) {
+        validationRunner.setExecutor(executor);
+    }
+
+    /**
+     * Check if validators are running
+     */
+    public boolean isValidating() {
+        return validating;
+    }
+
+    /**
+     * Cancel the validation in progress, if any. The wizard won't complete nor navigate when it finishes.
+     */
+    public void cancelValidation() {
+        if (validating) {
+            validating = false;
+            validationRunner.cancel();
+        }
+    }
+
+    private void validate() {
+        validating = true;
+        //Validators get a snapshot so they are not affected by later changes of the context
+        final Bundle snapshot = new Bundle(contextManager.getContext());
+        //Unparcel a restored context here rather than concurrently in the validators
+        snapshot.size();
+        validationRunner.run(snapshot, new ValidationRunner.Listener() {
+            @Override
+            public void onValidationFinished(List<ValidationFailure> failures) {
+                validating = false;
+                if (failures.isEmpty()) {
+                    WizardEventRecorder.record(recorderId, WizardEventRecorder.WIZARD_COMPLETE, position, 0);
+                    callbacks.onWizardComplete();
+                    return;
+                }
+                //Navigate to the first failing step
+                int firstPosition = getCurrentStepPosition();
+                for (ValidationFailure failure : failures) {
+                    if (failure.getStepClass() == null) {
+                        continue;
+                    }
+                    final int failurePosition = findStepPosition(failure.getStepClass());
+                    if (failurePosition < 0) {
+                        Log.w(TAG, "Cannot navigate to the step of " + failure + ", the step is not part of the current flow");
+                    }
+                    else if (failurePosition < firstPosition) {
+                        firstPosition = failurePosition;
+                    }
+                }
+                jumpTo(firstPosition);
+                if (callbacks instanceof ValidationCallbacks) {
+                    ((ValidationCallbacks) callbacks).onValidationFailed(failures);
+                }
+            }
+        });
+    }
+
+    private int findStepPosition(Class<? extends WizardStep> stepClass) {
+        if (stepClass != null) {
+            final int count = wizardFlow.getStepsCount();
+            for (int i = 0; i < count; i++) {
+                if (wizardFlow.getStepClass(i) == stepClass) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Jump directly to the first step of the specified class. See {@link #jumpTo(int)}.
+     * @param stepClass the class of the target step
+     * @return true if the wizard moved to the target step
+     * @throws IllegalArgumentException if the flow doesn't contain a step of this class
+     */
+    public boolean jumpTo(Class<? extends WizardStep> stepClass) {
+        final int stepPosition = findStepPosition(stepClass);
+        if (stepPosition < 0) {
+            throw new IllegalArgumentException("Step " + stepClass.getName() + " is not part of the wizard flow");
+        }
+        return jumpTo(stepPosition);
+    }
+
+    /**
+     * Jump directly to the specified step, skipping the steps in between. Unlike repeated calls to
+     * {@link #goNext()} or {@link #goBack()}, the current step is exited and persisted once and only the target
+     * step is shown. Jumping forward is only possible if every required step from the current step up to the
+     * target is completed, otherwise the wizard stays on the current step. The skipped steps are
+     * not marked as completed. Going back from a step reached by jumping forward returns to the step the
+     * jump was made from.
+     * @param stepPosition the position of the target step within the WizardFlow
+     * @return true if the wizard moved to the target step
+     */
+    public boolean jumpTo(int stepPosition) {
+        final boolean traced = WizardTrace.beginSection("Wizard.jumpTo", getCurrentStep());
+        final long startTime = WizardEventRecorder.start();
+        final int startPosition = position;
+        try {
+            return jumpToInternal(stepPosition);
+        } finally {
+            WizardEventRecorder.record(recorderId, WizardEventRecorder.JUMP, startPosition, position, startTime);
+            WizardTrace.endSection(traced);
+        }
+    }
+
+    private boolean jumpToInternal(int stepPosition) {
+        final int currentPosition = getCurrentStepPosition();
+        if (stepPosition < 0 || stepPosition >= wizardFlow.getStepsCount()) {
+            throw new IndexOutOfBoundsException("Invalid step position " + stepPosition);
+        }
+        if (stepPosition == currentPosition) {
+            return false;
+        }
+        if (stepPosition > currentPosition) {
+            //Check the required steps of the whole range at once
+            for (int i = currentPosition; i < stepPosition; i++) {
+                if (wizardFlow.isStepRequired(i) && !wizardFlow.isStepCompleted(i)) {
+                    return false;
+                }
+            }
+            wizardFlow.setStepCompleted(currentPosition, true);
+            publishState();
+            exitCurrentStep(WizardStep.EXIT_NEXT);
+            if (mPagerAdapter != null) {
+                mPagerAdapter.invalidateFrom(currentPosition + 1);
+            }
+            pushBranch(currentPosition, stepPosition);
+        }
+        else {
+            exitCurrentStep(WizardStep.EXIT_PREVIOUS);
+            //Forget the branches and jumps taken after the target step
+            while (branchCount > 0 && branchTargets[branchCount - 1] > stepPosition) {
+                branchCount--;
+            }
+        }
+        jumping = true;
+        try {
+            setCurrentStep(stepPosition);
+        } finally {
+            jumping = false;
+        }
+        callbacks.onStepChanged();
+        return true;
+    }
+
+    /**
+     * Exit the current step, persisting its context when the wizard moves forward. In a ViewPager the step
+     * might not be instantiated yet, e.g. right after the wizard was attached, leaving nothing to exit.
+     * @param exitCode {@link WizardStep#EXIT_NEXT} or {@link WizardStep#EXIT_PREVIOUS}
+     */
+    private void exitCurrentStep(int exitCode) {
+        final WizardStep step = getCurrentStep();
+        if (step == null) {
+            return;
+        }
+        step.onExit(exitCode);
+        if (exitCode == WizardStep.EXIT_NEXT) {
+            contextManager.persistStepContext(step);
+        }
+    }
+
+    private void pushBranch(int origin, int target) {
+        if (branchCount == branchOrigins.length) {
+            branchOrigins = Arrays.copyOf(branchOrigins, branchCount * 2);
+            branchTargets = Arrays.copyOf(branchTargets, branchCount * 2);
+        }
+        branchOrigins[branchCount] = origin;
+        branchTargets[branchCount] = target;
+        branchCount++;
+    }
+
+    /**
+     * Enter the sub-flow at the specified position of the current flow. The child flow is set up and becomes
+     * the current flow until the wizard leaves it.
+     * @param entryPosition the position of the sub-flow entry
+     * @param forward true to start at the first step of the child flow, false to start at its last step
+     */
+    private void enterSubFlow(int entryPosition, boolean forward) {
+        final boolean traced = WizardTrace.beginSection("Wizard.enterSubFlow", null);
+        WizardEventRecorder.record(recorderId, WizardEventRecorder.ENTER_SUB_FLOW, entryPosition, subFlowFrames.size() + 1);
+        try {
+            enterSubFlowInternal(entryPosition, forward);
+        } finally {
+            WizardTrace.endSection(traced);
+        }
+    }
+
+    private void enterSubFlowInternal(int entryPosition, boolean forward) {
+        final WizardFlow childFlow = wizardFlow.getSubFlow(entryPosition).onSetup().newSession();
+        if (childFlow.getStepsCount() == 0) {
+            throw new IllegalStateException("The sub-flow at position " + entryPosition + " has no steps");
+        }
+        checkFragmentFlow(childFlow);
+        final HashSet<String> parentKeys = wizardFlow.isSubFlowContextScoped(entryPosition)
+                ? new HashSet<String>(contextManager.getContext().keySet())
+                : null;
+        subFlowFrames.add(new SubFlowFrame(wizardFlow, entryPosition, parentKeys,
+                branchOrigins, branchTargets, branchCount));
+        branchOrigins = new int[4];
+        branchTargets = new int[4];
+        branchCount = 0;
+        final int lastPosition = childFlow.getStepsCount() - 1;
+        if (!forward) {
+            //The user went through the child flow already, let them go forward again
+            for (int i = 0; i < lastPosition; i++) {
+                childFlow.setStepCompleted(i, true);
+            }
+        }
+        switchFlow(childFlow);
+        setCurrentStep(forward ? 0 : lastPosition, forward);
+    }
+
+    /**
+     * Leave the current sub-flow and return to its parent flow. The child flow and the state kept for its
+     * steps are released.
+     * @param completed true if the child flow was completed, false if the user went back out of it
+     * @return the position of the sub-flow entry in the parent flow
+     */
+    private int exitSubFlow(boolean completed) {
+        final SubFlowFrame frame = subFlowFrames.remove(subFlowFrames.size() - 1);
+        WizardEventRecorder.record(recorderId, WizardEventRecorder.EXIT_SUB_FLOW, frame.entryPosition, completed ? 1 : 0);
+        if (frame.parentKeys != null) {
+            //Drop the variables the child flow added to the context
+            final ArrayList<String> childKeys = new ArrayList<String>();
+            for (String key : contextManager.getContext().keySet()) {
+                if (!frame.parentKeys.contains(key)) {
+                    childKeys.add(key);
+                }
+            }
+            if (contextManager instanceof ScopedContextManager) {
+                ((ScopedContextManager) contextManager).drop(childKeys);
+            }
+            else {
+                final Bundle context = contextManager.getContext();
+                for (String key : childKeys) {
+                    context.remove(key);
+                }
+                contextManager.setContext(context);
+            }
+        }
+        branchOrigins = frame.branchOrigins;
+        branchTargets = frame.branchTargets;
+        branchCount = frame.branchCount;
+        if (completed) {
+            frame.parentFlow.setStepCompleted(frame.entryPosition, true);
+        }
+        switchFlow(frame.parentFlow);
+        position = frame.entryPosition;
+        publishState();
+        return frame.entryPosition;
+    }
+
+    private static void checkFragmentFlow(WizardFlow flow) {
+        if (flow.isViewFlow()) {
+            throw new IllegalArgumentException("Cannot navigate the wizard flow. It holds ViewSteps, use ViewWizard to navigate it.");
+        }
+    }
+
+    private void switchFlow(WizardFlow flow) {
+        wizardFlow = flow;
+        flowPath = getFlowPath();
+        flowSwitched = true;
+        if (savedStepStates != null) {
+            //The saved states belong to the positions of the previous flow
+            savedStepStates.evictAll();
+        }
+        if (mPagerAdapter != null) {
+            setPagerAdapter(0);
+        }
+    }
+
+    /**
+     * Show the current flow in a new pager adapter. Replacing the adapter destroys the pages of the previous
+     * flow and drops their saved state, so it isn't restored into the steps at the same positions of the new flow.
+     * @param currentPosition the position of the current step within the flow
+     */
+    private void setPagerAdapter(int currentPosition) {
+        mPagerAdapter = new WizardPagerAdapter(mFragmentManager, wizardFlow, contextManager);
+        mPagerAdapter.setCurrentPosition(currentPosition);
+        mPager.setAdapter(mPagerAdapter);
+    }
+
+    /**
+     * Select the page of a step, making sure the pager has a page at its position
+     */
+    private void showPage(int stepPosition, boolean smoothScroll) {
+        if (mPagerAdapter.setCurrentPosition(stepPosition)) {
+            mPagerAdapter.notifyDataSetChanged();
+        }
+        mPager.setCurrentItem(stepPosition, smoothScroll);
+    }
+
+    /**
+     * Get the depth of the sub-flow being navigated
+     * @return 0 if the wizard is navigating the top-level flow
+     */
+    public int getSubFlowDepth() {
+        return subFlowFrames.size();
+    }
+
 	/**
-	 * Sets the current step of the wizard
+	 * Sets the current step of the wizard. If the position holds a sub-flow, the wizard enters the sub-flow.
 	 * @param stepPosition the position of the step within the WizardFlow
 	 */
 	public void setCurrentStep(int stepPosition) {
+        setCurrentStep(stepPosition, stepPosition >= position);
+    }
+
+    private void setCurrentStep(int stepPosition, boolean forward) {
+        if (wizardFlow.getSubFlow(stepPosition) != null) {
+            enterSubFlow(stepPosition, forward);
+            return;
+        }
+        final boolean traced = WizardTrace.beginSection("Wizard.setCurrentStep",
+                WizardTrace.isEnabled() ? wizardFlow.getStepClass(stepPosition) : null);
+        final long startTime = WizardEventRecorder.start();
         try {
-            this.position = stepPosition;
-            stepStepStep = wizardFlow.steps.get(position).getStepClass().newInstance();
+            setCurrentStepInternal(stepPosition, forward);
+        } finally {
+            WizardEventRecorder.record(recorderId, WizardEventRecorder.SET_CURRENT_STEP, stepPosition, subFlowFrames.size(), startTime);
+            WizardTrace.endSection(traced);
+        }
+    }
+
+    private void setCurrentStepInternal(int stepPosition, boolean forward) {
+        final boolean switched = flowSwitched;
+        flowSwitched = false;
+        final int previousPosition = position;
+        this.position = stepPosition;
+        publishState();
+        if (contextManager instanceof ScopedContextManager) {
+            //Drop the context variables whose scope ended
+            ((ScopedContextManager) contextManager).setCurrentStep(flowPath, stepPosition);
+        }
+        if (mPager != null) {
+            //Check if the user dragged the page or pressed a button.
+            //If the page was dragged then the ViewPager already shows the step.
+            //Otherwise, set the current page programmatically.
+            if (!fingerSlide || switched) {
+                //Don't scroll through the skipped steps when jumping, nor from the first page of a new flow
+                showPage(stepPosition, !jumping && !switched);
+            }
+            else if (mPagerAdapter.setCurrentPosition(stepPosition)) {
+                mPagerAdapter.notifyDataSetChanged();
+            }
+            return;
+        }
+        if (mFragmentManager == null) {
+            //Detached, the step is shown once the wizard is attached again
+            return;
+        }
+        try {
+            if (savedStepStates != null && !switched && stepStepStep != null && stepStepStep.isAdded()) {
+                final Fragment.SavedState savedState = mFragmentManager.saveFragmentInstanceState(stepStepStep);
+                if (savedState != null) {
+                    savedStepStates.put(previousPosition, savedState);
+                }
+            }
+            stepStepStep = wizardFlow.getStepClass(position).newInstance();
+            if (savedStepStates != null) {
+                final Fragment.SavedState savedState = savedStepStates.remove(position);
+                if (savedState != null) {
+                    stepStepStep.setInitialSavedState(savedState);
+                }
+            }
             mFragmentManager.beginTransaction()
                     .replace(android.R.id.content, stepStepStep)
                     .setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN)
@@ -164,11 +1042,85 @@ public class Wizard {
         }
     }
 	
+    /**
+     * Observe a wizard context variable. The observer is notified on the main thread whenever a step or the
+     * wizard host persists a different value for the variable.
+     * @param key the name of the context variable
+     * @param observer the observer to notify
+     * @throws UnsupportedOperationException if the wizard's ContextManager is not an {@link ObservableContextManager}
+     */
+    public void addContextObserver(String key, ContextObserver observer) {
+        if (!(contextManager instanceof ObservableContextManager)) {
+            throw new UnsupportedOperationException("The wizard's ContextManager doesn't support observing context variables. " +
+                    "Use a ContextManager implementing ObservableContextManager, such as ContextManagerImpl.");
+        }
+        ((ObservableContextManager) contextManager).addObserver(key, observer);
+    }
+
+    /**
+     * Stop observing a wizard context variable
+     * @param key the name of the context variable
+     * @param observer the observer previously added
+     */
+    public void removeContextObserver(String key, ContextObserver observer) {
+        if (contextManager instanceof ObservableContextManager) {
+            ((ObservableContextManager) contextManager).removeObserver(key, observer);
+        }
+    }
+
+    /**
+     * Get the value of a wizard context variable
+     * @param key the typed key of the variable
+     * @return the value or null if the variable has no value
+     * @throws UnsupportedOperationException if the wizard's ContextManager is not a {@link TypedContextManager}
+     */
+    public <T> T getContextValue(ContextKey<T> key) {
+        return getTypedContextManager().get(key);
+    }
+
+    /**
+     * Set the value of a wizard context variable
+     * @param key the typed key of the variable
+     * @param value the new value or null to remove the value
+     * @throws UnsupportedOperationException if the wizard's ContextManager is not a {@link TypedContextManager}
+     */
+    public <T> void putContextValue(ContextKey<T> key, T value) {
+        getTypedContextManager().put(key, value);
+    }
+
+    private TypedContextManager getTypedContextManager() {
+        if (!(contextManager instanceof TypedContextManager)) {
+            throw new UnsupportedOperationException("The wizard's ContextManager doesn't support typed context keys. " +
+                    "Use a ContextManager implementing TypedContextManager, such as ContextManagerImpl.");
+        }
+        return (TypedContextManager) contextManager;
+    }
+
+	/**
+	 * Gets the flow the wizard is navigating, which is the child flow while the wizard is inside a sub-flow
+	 * @return WizardFlow the wizard is navigating
+	 */
+    public WizardFlow getFlow() {
+        return wizardFlow;
+    }
+
+	/**
+	 * Gets the wizard context, e.g. to export it with {@link org.codepond.wizardroid.persistence.ContextJsonExporter}
+	 * when the wizard completes
+	 * @return Bundle holding the context variables of the wizard
+	 */
+    public Bundle getContext() {
+        return contextManager.getContext();
+    }
+
 	/**
 	 * Gets the current step position
 	 * @return integer representing the position of the step in the WizardFlow
 	 */
     public int getCurrentStepPosition() {
+        if (!isMainThread()) {
+            return state.position;
+        }
 		return position;
 	}
 	
@@ -177,23 +1129,43 @@ public class Wizard {
 	 * @return WizardStep the current WizardStep instance
 	 */
     public WizardStep getCurrentStep() {
+        if (mPagerAdapter != null) {
+            return mPagerAdapter.getStep(position);
+        }
         return stepStepStep;
 	}
 	
 	/**
-	 * Checks if the current step is the last step in the Wizard
+	 * Checks if the current step is the last step in the Wizard, including the flows enclosing the current sub-flow
 	 * @return boolean representing the result of the check
 	 */
     public boolean isLastStep() {
-		return position == wizardFlow.getStepsCount() - 1;
+		if (position != wizardFlow.getStepsCount() - 1) {
+            return false;
+        }
+        for (int i = 0; i < subFlowFrames.size(); i++) {
+            final SubFlowFrame frame = subFlowFrames.get(i);
+            if (frame.entryPosition != frame.parentFlow.getStepsCount() - 1) {
+                return false;
+            }
+        }
+        return true;
 	}
 	
 	/**
-	 * Checks if the step is the first step in the Wizard
+	 * Checks if the step is the first step in the Wizard, including the flows enclosing the current sub-flow
 	 * @return boolean representing the result of the check
 	 */
 	public boolean isFirstStep() {
-		return position == 0;
+		if (position != 0) {
+            return false;
+        }
+        for (int i = 0; i < subFlowFrames.size(); i++) {
+            if (subFlowFrames.get(i).entryPosition != 0) {
+                return false;
+            }
+        }
+        return true;
 	}
 
     /**
@@ -201,10 +1173,89 @@ public class Wizard {
      * is completed
      */
     public boolean canGoNext() {
-        int stepPosition = getCurrentStepPosition();
+        if (!isMainThread()) {
+            return state.canGoNext;
+        }
+        return canGoNext(getCurrentStepPosition());
+    }
+
+    private boolean canGoNext(int stepPosition) {
         if (wizardFlow.isStepRequired(stepPosition)) {
             return wizardFlow.isStepCompleted(stepPosition);
         }
         return true;
     }
+
+    /**
+     * Check if the specified step is completed. Unlike {@link WizardFlow#isStepCompleted(int)}, safe to call
+     * from any thread.
+     * @param stepPosition the position of the step to be checked
+     */
+    public boolean isStepCompleted(int stepPosition) {
+        if (!isMainThread()) {
+            final long[] completed = state.completed;
+            wizardFlow.checkPosition(stepPosition);
+            return stepPosition < completed.length * 64 && (completed[stepPosition >> 6] & (1L << stepPosition)) != 0;
+        }
+        return wizardFlow.isStepCompleted(stepPosition);
+    }
+
+    /**
+     * Immutable snapshot of the wizard state
+     */
+    private static final class State {
+        final int position;
+        final boolean canGoNext;
+        final long[] completed;
+
+        State(int position, boolean canGoNext, long[] completed) {
+            this.position = position;
+            this.canGoNext = canGoNext;
+            this.completed = completed;
+        }
+    }
+
+    private int[] getFlowPath() {
+        final int[] path = new int[subFlowFrames.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = subFlowFrames.get(i).entryPosition;
+        }
+        return path;
+    }
+
+    /**
+     * Parent flow of a sub-flow being navigated
+     */
+    private static final class SubFlowFrame {
+        final WizardFlow parentFlow;
+        final int entryPosition;
+        //Context variables present when a scoped sub-flow was entered, null if the sub-flow shares the context
+        final HashSet<String> parentKeys;
+        final int[] branchOrigins;
+        final int[] branchTargets;
+        final int branchCount;
+
+        SubFlowFrame(WizardFlow parentFlow, int entryPosition, HashSet<String> parentKeys,
+                     int[] branchOrigins, int[] branchTargets, int branchCount) {
+            this.parentFlow = parentFlow;
+            this.entryPosition = entryPosition;
+            this.parentKeys = parentKeys;
+            this.branchOrigins = branchOrigins;
+            this.branchTargets = branchTargets;
+            this.branchCount = branchCount;
+        }
+    }
+
+    /**
+     * Step completion change waiting to be applied on the main thread
+     */
+    private static final class StepUpdate {
+        final WizardStep step;
+        final boolean completed;
+
+        StepUpdate(WizardStep step, boolean completed) {
+            this.step = step;
+            this.completed = completed;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,309 @@
+package org.codepond.wizardroid;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Always-on flight recorder of the wizard's navigation events, to find out what happened when a user reports
+ * that the wizard froze. Events are written into a fixed-size ring buffer of primitive arrays, so recording an
+ * event doesn't allocate and only the latest events are kept. Dump the buffer on demand with
+ * {@link #writeText(Writer)} or {@link #writeBinary(OutputStream)}, or on crash with
+ * {@link #installCrashHandler(File)}. The buffer is shared by all wizards of the process, each event carries the id
+ * of its source, a wizard or a context manager, obtained from {@link #newSourceId()}. The recorder is thread safe.
+ */
+public final class WizardEventRecorder {
+    /**
+     * Navigation from a step, the value is the position the wizard ended up at
+     */
+    public static final int GO_NEXT = 1;
+    public static final int GO_BACK = 2;
+    public static final int JUMP = 3;
+    /**
+     * Step shown, the value is the depth of the sub-flow holding the step
+     */
+    public static final int SET_CURRENT_STEP = 4;
+    /**
+     * Step marked completed, value 1, or incomplete, value 0
+     */
+    public static final int STEP_COMPLETED = 5;
+    /**
+     * Step context written to or read from the wizard context, the value is the number of context variables
+     */
+    public static final int PERSIST_CONTEXT = 6;
+    public static final int LOAD_CONTEXT = 7;
+    public static final int WIZARD_COMPLETE = 8;
+    /**
+     * Sub-flow entered, the value is the new depth
+     */
+    public static final int ENTER_SUB_FLOW = 9;
+    /**
+     * Sub-flow left, value 1 if it was completed, 0 if the user went back out of it
+     */
+    public static final int EXIT_SUB_FLOW = 10;
+
+    private static final String[] EVENT_NAMES = { "?", "goNext", "goBack", "jumpTo", "setCurrentStep",
+            "stepCompleted", "persistContext", "loadContext", "wizardComplete", "enterSubFlow", "exitSubFlow" };
+
+    /**
+     * Header of the binary dump, followed by the format version
+     */
+    private static final int BINARY_MAGIC = 0x575a4556;
+    private static final int BINARY_VERSION = 2;
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private static final Object lock = new Object();
+    private static final AtomicInteger sourceIds = new AtomicInteger();
+    private static volatile boolean enabled = true;
+    private static long[] times = new long[DEFAULT_CAPACITY];
+    private static long[] durations = new long[DEFAULT_CAPACITY];
+    private static int[] sources = new int[DEFAULT_CAPACITY];
+    private static int[] types = new int[DEFAULT_CAPACITY];
+    private static int[] positions = new int[DEFAULT_CAPACITY];
+    private static int[] values = new int[DEFAULT_CAPACITY];
+    //Total number of events recorded, the next event goes to index written % capacity
+    private static long written;
+
+    private WizardEventRecorder() {
+    }
+
+    /**
+     * Enable or disable recording. Recording is enabled by default.
+     */
+    public static void setEnabled(boolean enabled) {
+        WizardEventRecorder.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set how many events are kept. The recorded events are dropped.
+     * @param capacity the number of events
+     */
+    public static void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        synchronized (lock) {
+            times = new long[capacity];
+            durations = new long[capacity];
+            sources = new int[capacity];
+            types = new int[capacity];
+            positions = new int[capacity];
+            values = new int[capacity];
+            written = 0;
+        }
+    }
+
+    /**
+     * Drop the recorded events
+     */
+    public static void clear() {
+        synchronized (lock) {
+            written = 0;
+        }
+    }
+
+    /**
+     * Get a new id identifying the events of a source, e.g. of one wizard, in the shared buffer
+     * @return a positive id, unique in the process
+     */
+    public static int newSourceId() {
+        return sourceIds.incrementAndGet();
+    }
+
+    /**
+     * Get the time to pass as the start of an event measured with {@link #record(int, int, int, int, long)}
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record an event without a duration
+     * @param source the id of the wizard or context manager recording the event, see {@link #newSourceId()}
+     * @param type the type of the event, e.g. {@link #GO_NEXT}
+     * @param position the position of the step the event is about
+     * @param value a value depending on the type of the event, e.g. 1 if a step was completed
+     */
+    public static void record(int source, int type, int position, int value) {
+        if (enabled) {
+            write(source, type, position, value, System.nanoTime(), 0);
+        }
+    }
+
+    /**
+     * Record an event which started at the specified time
+     * @param source the id of the wizard or context manager recording the event, see {@link #newSourceId()}
+     * @param type the type of the event, e.g. {@link #PERSIST_CONTEXT}
+     * @param position the position of the step the event is about
+     * @param value a value depending on the type of the event
+     * @param startTime the value returned by {@link #start()} when the event started
+     */
+    public static void record(int source, int type, int position, int value, long startTime) {
+        if (enabled) {
+            final long now = System.nanoTime();
+            write(source, type, position, value, now, startTime != 0 ? now - startTime : 0);
+        }
+    }
+
+    private static void write(int source, int type, int position, int value, long time, long duration) {
+        synchronized (lock) {
+            final int index = (int) (written % times.length);
+            times[index] = time;
+            durations[index] = duration;
+            sources[index] = source;
+            types[index] = type;
+            positions[index] = position;
+            values[index] = value;
+            written++;
+        }
+    }
+
+    /**
+     * Get the number of events held by the recorder
+     */
+    public static int size() {
+        synchronized (lock) {
+            return (int) Math.min(written, times.length);
+        }
+    }
+
+    /**
+     * Write the recorded events, oldest first, as text with one event per line, e.g.
+     * {@code +1520.312ms #2 goNext pos=6 value=0 took=0.845ms}, #2 being the id of the source of the event.
+     * Times are relative to the oldest event.
+     * @param writer the writer, flushed but not closed
+     */
+    public static void writeText(Writer writer) throws IOException {
+        final Snapshot snapshot = snapshot();
+        final long origin = snapshot.count > 0 ? snapshot.times[0] : 0;
+        final StringBuilder line = new StringBuilder(64);
+        for (int i = 0; i < snapshot.count; i++) {
+            line.setLength(0);
+            line.append('+').append(formatMillis(snapshot.times[i] - origin)).append("ms #")
+                    .append(snapshot.sources[i]).append(' ')
+                    .append(getEventName(snapshot.types[i]))
+                    .append(" pos=").append(snapshot.positions[i])
+                    .append(" value=").append(snapshot.values[i]);
+            if (snapshot.durations[i] != 0) {
+                line.append(" took=").append(formatMillis(snapshot.durations[i])).append("ms");
+            }
+            line.append('\n');
+            writer.write(line.toString());
+        }
+        writer.flush();
+    }
+
+    /**
+     * Write the recorded events, oldest first, in a compact binary format: the int header 0x575a4556, the int
+     * format version and the int number of events, followed by each event as its long time in nanoseconds,
+     * long duration in nanoseconds, int source id, byte type, int position and int value, all big-endian.
+     * @param out the stream, flushed but not closed
+     */
+    public static void writeBinary(OutputStream out) throws IOException {
+        final Snapshot snapshot = snapshot();
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(BINARY_MAGIC);
+        data.writeInt(BINARY_VERSION);
+        data.writeInt(snapshot.count);
+        for (int i = 0; i < snapshot.count; i++) {
+            data.writeLong(snapshot.times[i]);
+            data.writeLong(snapshot.durations[i]);
+            data.writeInt(snapshot.sources[i]);
+            data.writeByte(snapshot.types[i]);
+            data.writeInt(snapshot.positions[i]);
+            data.writeInt(snapshot.values[i]);
+        }
+        data.flush();
+    }
+
+    /**
+     * Dump the recorded events as text to the specified file when the application crashes, before handing the
+     * crash to the previous default handler
+     * @param file the file to write, replaced on every crash
+     */
+    public static void installCrashHandler(final File file) {
+        final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable ex) {
+                try {
+                    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                    try {
+                        writeText(writer);
+                    } finally {
+                        writer.close();
+                    }
+                } catch (IOException ignored) {
+                    //Nothing more can be done while crashing
+                }
+                if (previous != null) {
+                    previous.uncaughtException(thread, ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the name of an event type as used in the text dump
+     */
+    public static String getEventName(int type) {
+        return type > 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type] : EVENT_NAMES[0];
+    }
+
+    private static String formatMillis(long nanos) {
+        final long micros = nanos / 1000;
+        final long fraction = Math.abs(micros % 1000);
+        return (micros / 1000) + (fraction < 10 ? ".00" : fraction < 100 ? ".0" : ".") + fraction;
+    }
+
+    /**
+     * Copy the events out of the ring buffer so they can be written without holding the lock
+     */
+    private static Snapshot snapshot() {
+        synchronized (lock) {
+            final int capacity = times.length;
+            final int count = (int) Math.min(written, capacity);
+            final int first = (int) ((written - count) % capacity);
+            final Snapshot snapshot = new Snapshot(count);
+            for (int i = 0; i < count; i++) {
+                final int index = (first + i) % capacity;
+                snapshot.times[i] = times[index];
+                snapshot.durations[i] = durations[index];
+                snapshot.sources[i] = sources[index];
+                snapshot.types[i] = types[index];
+                snapshot.positions[i] = positions[index];
+                snapshot.values[i] = values[index];
+            }
+            return snapshot;
+        }
+    }
+
+    private static final class Snapshot {
+        final int count;
+        final long[] times;
+        final long[] durations;
+        final int[] sources;
+        final int[] types;
+        final int[] positions;
+        final int[] values;
+
+        Snapshot(int count) {
+            this.count = count;
+            this.times = new long[count];
+            this.durations = new long[count];
+            this.sources = new int[count];
+            this.types = new int[count];
+            this.positions = new int[count];
+            this.values = new int[count];
+        }
+    }
+}
@@ -7,58 +7,158 @@ import java.util.*;
 /**
  * WizardFlow holds information regarding the wizard's steps and flow.
  * Use {@link WizardFlow.Builder} to create an instance of WizardFlow.
+ * The definition of the flow (steps, required flags, branches) is immutable and shared by the sessions
+ * created with {@link #newSession()}, each session only holding its own completion state. A flow
+ * can therefore be built once, e.g. kept in a static field, and returned from every
+ * {@link WizardFragment#onSetup()} call.
  */
 public class WizardFlow {
     /**
-     * This class wraps WizardStep to provide additional meta data which is persisted separately
-     * as part of the wizard flow.
+     * Child flow embedded in a flow with {@link Builder#addSubFlow(SubFlow)}. The child flow is only set up when
+     * the wizard enters it and is released once the wizard leaves it.
+     */
+    public static abstract class SubFlow {
+        /**
+         * Set up the child flow. Use {@link WizardFlow.Builder} to create it.
+         * Called every time the wizard enters the sub-flow.
+         */
+        public abstract WizardFlow onSetup();
+    }
+
+    /**
+     * This class wraps WizardStep to provide additional meta data. Step metadata is part of the flow
+     * definition and is never modified once the flow is created.
      */
     static class StepMetaData {
-        private boolean completed;
-        private boolean required;
+        private final boolean required;
 
-        private Class<? extends WizardStep> stepClass;
+        private final Class<? extends WizardStep> stepClass;
+        private final Class<? extends ViewStep> viewStepClass;
+        private ArrayList<Branch> branches;
+        private final SubFlow subFlow;
+        private final boolean contextScoped;
 
         StepMetaData(boolean isRequired, Class<? extends WizardStep> stepClass) {
+            this(isRequired, stepClass, null, null, false);
+        }
+
+        StepMetaData(SubFlow subFlow, boolean contextScoped) {
+            this(false, null, null, subFlow, contextScoped);
+        }
+
+        private StepMetaData(boolean isRequired, Class<? extends WizardStep> stepClass,
+                             Class<? extends ViewStep> viewStepClass, SubFlow subFlow, boolean contextScoped) {
             this.required = isRequired;
             this.stepClass = stepClass;
+            this.viewStepClass = viewStepClass;
+            this.subFlow = subFlow;
+            this.contextScoped = contextScoped;
+        }
+
+        static StepMetaData forViewStep(boolean isRequired, Class<? extends ViewStep> viewStepClass) {
+            return new StepMetaData(isRequired, null, viewStepClass, null, false);
         }
 
         public boolean isRequired() {
             return required;
         }
 
-        public boolean isCompleted() {
-            return completed;
+        public Class<? extends WizardStep> getStepClass() {
+            return stepClass;
         }
 
-        public void setCompleted(boolean completed) {
-            this.completed = completed;
+        Class<? extends ViewStep> getViewStepClass() {
+            return viewStepClass;
         }
 
-        public Class<? extends WizardStep> getStepClass() {
-            return stepClass;
+        void addBranch(Branch branch) {
+            if (branches == null) {
+                branches = new ArrayList<Branch>(2);
+            }
+            branches.add(branch);
+        }
+
+        ArrayList<Branch> getBranches() {
+            return branches;
+        }
+
+        SubFlow getSubFlow() {
+            return subFlow;
+        }
+
+        boolean isContextScoped() {
+            return contextScoped;
         }
 
         @Override
         public int hashCode() {
-            return Arrays.hashCode(new Object[] { stepClass, required });
+            return Arrays.hashCode(new Object[] { stepClass, viewStepClass, required, subFlow });
         }
 
         @Override
         public boolean equals(Object o) {
             return o instanceof StepMetaData
-                    && ((StepMetaData) o).getStepClass().equals(stepClass)
+                    && ((StepMetaData) o).getStepClass() == stepClass
+                    && ((StepMetaData) o).getViewStepClass() == viewStepClass
+                    && ((StepMetaData) o).getSubFlow() == subFlow
                     && ((StepMetaData) o).isRequired() == required;
         }
     }
 
-    final LinkedList<StepMetaData> steps;
+    /**
+     * Conditional jump taken when the wizard leaves a step and the context variable has the given value
+     */
+    static class Branch {
+        final String variable;
+        final String value;
+        final int target;
+
+        Branch(String variable, String value, int target) {
+            this.variable = variable;
+            this.value = value;
+            this.target = target;
+        }
+
+        boolean matches(Bundle context) {
+            final Object actual = context.get(variable);
+            return actual != null && value.equals(String.valueOf(actual));
+        }
+    }
+
+    //Definition, shared between sessions
+    ArrayList<StepMetaData> steps;
+    private final Bundle initialContext;
+    //Session state
+    long[] completed;
+    //Whether steps is shared with other sessions and must be copied before adding a step
+    private boolean stepsShared;
 
-	private WizardFlow(LinkedList<StepMetaData> steps) {
-		this.steps = steps;
+	WizardFlow(ArrayList<StepMetaData> steps) {
+		this(steps, null);
 	}
 
+    WizardFlow(ArrayList<StepMetaData> steps, Bundle initialContext) {
+        this(steps, initialContext, new long[(steps.size() + 63) / 64], false);
+    }
+
+    WizardFlow(ArrayList<StepMetaData> steps, Bundle initialContext, long[] completed, boolean stepsShared) {
+        this.steps = steps;
+        this.initialContext = initialContext;
+        this.completed = completed;
+        this.stepsShared = stepsShared;
+    }
+
+    /**
+     * Create a new session of this flow. The session shares the definition of this flow and starts with a copy
+     * of its completion state, so creating it only allocates the session state.
+     * {@link WizardFragment} calls this method on the flow returned by {@link WizardFragment#onSetup()}.
+     * @return WizardFlow with its own completion state
+     */
+    public WizardFlow newSession() {
+        stepsShared = true;
+        return new WizardFlow(steps, initialContext, completed.clone(), true);
+    }
+
     /**
 	 * Get the list of wizard flow steps which is cut off at the last step which is required and incomplete
      * and the first step which doesn't allow to go back and is incomplete.
@@ -68,13 +168,87 @@ public class WizardFlow {
         List<Class<? extends WizardStep>> cutOffFlow = new ArrayList<Class<? extends WizardStep>>();
 
         //Calculate the cut off step by finding the last step which is required and incomplete
-        for (StepMetaData stepMetaData : this.steps) {
-            cutOffFlow.add(stepMetaData.getStepClass());
-            if (!stepMetaData.isCompleted() && stepMetaData.isRequired()) break;
+        final int count = getAvailableStepsCount();
+        for (int i = 0; i < count; i++) {
+            cutOffFlow.add(getStepClass(i));
         }
         return cutOffFlow;
 	}
 
+    /**
+     * Get the amount of steps which are available to the user, cut off at the first step which is required
+     * and incomplete. Unlike {@link #getSteps()} this method doesn't allocate and is safe to call frequently.
+     */
+    int getAvailableStepsCount() {
+        final int size = getStepsCount();
+        for (int i = 0; i < size; i++) {
+            if (!isStepCompleted(i) && isStepRequired(i)) return i + 1;
+        }
+        return size;
+    }
+
+    /**
+     * Get the sub-flow entry at the specified position
+     * @param stepPosition the position of the step
+     * @return the sub-flow or null if the position holds a regular step
+     */
+    SubFlow getSubFlow(int stepPosition) {
+        return steps.get(stepPosition).getSubFlow();
+    }
+
+    /**
+     * Check if the sub-flow at the specified position keeps its context variables to itself
+     */
+    boolean isSubFlowContextScoped(int stepPosition) {
+        return steps.get(stepPosition).isContextScoped();
+    }
+
+    /**
+     * Add the classes of the steps whose metadata is in memory, without loading any
+     * @param stepClasses the collection receiving the step classes
+     */
+    void collectLoadedStepClasses(Collection<Class<?>> stepClasses) {
+        for (StepMetaData step : steps) {
+            //Sub-flows are only set up when entered
+            if (step.getStepClass() != null) {
+                stepClasses.add(step.getStepClass());
+            }
+            else if (step.getViewStepClass() != null) {
+                stepClasses.add(step.getViewStepClass());
+            }
+        }
+    }
+
+    /**
+     * Check if the steps of this flow are {@link ViewStep}s, hosted by a {@link ViewWizard}
+     */
+    boolean isViewFlow() {
+        for (StepMetaData step : steps) {
+            if (step.getViewStepClass() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the class of the specified step
+     * @param stepPosition the position of the step
+     * @return the class or null if the position holds a sub-flow or a {@link ViewStep}
+     */
+    public Class<? extends WizardStep> getStepClass(int stepPosition) {
+        return steps.get(stepPosition).getStepClass();
+    }
+
+    /**
+     * Get the class of the specified {@link ViewStep}
+     * @param stepPosition the position of the step
+     * @return the class or null if the position holds a sub-flow or a {@link WizardStep}
+     */
+    Class<? extends ViewStep> getViewStepClass(int stepPosition) {
+        return steps.get(stepPosition).getViewStepClass();
+    }
+
     /**
      * Check if the specified step is required
      * @param stepPosition the position of the step to be checked
@@ -89,8 +263,8 @@ public class WizardFlow {
      * @param stepPosition the position of the step to be checked
      */
     public boolean isStepCompleted(int stepPosition) {
-        StepMetaData meta = steps.get(stepPosition);
-        return meta.isCompleted();
+        checkPosition(stepPosition);
+        return (completed[stepPosition >> 6] & (1L << stepPosition)) != 0;
     }
 
     /**
@@ -106,21 +280,89 @@ public class WizardFlow {
      * @param stepCompleted true for complete, false for incomplete
      */
     public void setStepCompleted(int stepPosition, boolean stepCompleted) {
-        steps.get(stepPosition).setCompleted(stepCompleted);
+        checkPosition(stepPosition);
+        if (stepCompleted) {
+            completed[stepPosition >> 6] |= 1L << stepPosition;
+        }
+        else {
+            completed[stepPosition >> 6] &= ~(1L << stepPosition);
+        }
     }
 
-    final void persistFlow(Bundle state) {
-        for (StepMetaData stepMetaData : steps) {
-            state.putBoolean(stepMetaData.getStepClass().getSimpleName() + steps.indexOf(stepMetaData), stepMetaData.isCompleted());
+    void checkPosition(int stepPosition) {
+        if (stepPosition < 0 || stepPosition >= getStepsCount()) {
+            throw new IndexOutOfBoundsException("Invalid step position " + stepPosition + ", flow has " + getStepsCount() + " steps");
         }
     }
 
-    final void loadFlow(Bundle state) {
-        for (StepMetaData stepMetaData : steps) {
-            stepMetaData.setCompleted(
-                    state.getBoolean(stepMetaData.getStepClass().getSimpleName() + steps.indexOf(stepMetaData),
-                            stepMetaData.isCompleted()));
+    /**
+     * Get the position of the step following the specified one, taking the first branch of the step whose
+     * condition is met by the wizard context. Without a matching branch the flow proceeds to the next position.
+     * @param stepPosition the position of the step the wizard is leaving
+     * @param context the wizard context
+     */
+    public int getNextStepPosition(int stepPosition, Bundle context) {
+        final ArrayList<Branch> branches = steps.get(stepPosition).getBranches();
+        if (branches != null && context != null) {
+            for (int i = 0; i < branches.size(); i++) {
+                final Branch branch = branches.get(i);
+                if (branch.matches(context)) {
+                    return branch.target;
+                }
+            }
         }
+        return stepPosition + 1;
+    }
+
+    /**
+     * Populate a new wizard context with the flow's initial context variables
+     * @param context the wizard context
+     */
+    void initContext(Bundle context) {
+        if (initialContext != null) {
+            context.putAll(initialContext);
+        }
+    }
+
+    /**
+     * Add a step at the end of the flow at runtime, unless an identical step is already part of the flow
+     * @param stepMetaData the step to be added
+     */
+    void addStep(StepMetaData stepMetaData) {
+        if (!steps.contains(stepMetaData)) {
+            if (stepsShared) {
+                //Copy on write, the definition is shared with other sessions
+                steps = new ArrayList<StepMetaData>(steps);
+                stepsShared = false;
+            }
+            steps.add(stepMetaData);
+            if (completed.length * 64 < steps.size()) {
+                completed = Arrays.copyOf(completed, completed.length + 1);
+            }
+        }
+    }
+
+    void persistFlow(Bundle state) {
+        for (int i = 0; i < steps.size(); i++) {
+            state.putBoolean(getStateKey(i), isStepCompleted(i));
+        }
+    }
+
+    void loadFlow(Bundle state) {
+        for (int i = 0; i < steps.size(); i++) {
+            setStepCompleted(i, state.getBoolean(getStateKey(i), isStepCompleted(i)));
+        }
+    }
+
+    private String getStateKey(int stepPosition) {
+        final StepMetaData stepMetaData = steps.get(stepPosition);
+        if (stepMetaData.getStepClass() != null) {
+            return stepMetaData.getStepClass().getSimpleName() + stepPosition;
+        }
+        if (stepMetaData.getViewStepClass() != null) {
+            return stepMetaData.getViewStepClass().getSimpleName() + stepPosition;
+        }
+        return "SubFlow" + stepPosition;
     }
 	/**
 	 * Builder for {@link WizardFlow}. Use this class to build an instance of WizardFlow.
@@ -130,13 +372,14 @@ public class WizardFlow {
 	 */
 	public static class Builder {
 
-        private LinkedList<StepMetaData> wizardSteps;
+        private ArrayList<StepMetaData> wizardSteps;
+        private Bundle initialContext;
 
         /**
 		 * Construct a WizardFlow.Builder
 		 */
 		public Builder() {
-			wizardSteps = new LinkedList<>();
+			wizardSteps = new ArrayList<>();
 		}
 		
 		/**
@@ -162,13 +405,113 @@ public class WizardFlow {
             return this;
         }
 
+        /**
+         * Add a {@link ViewStep} to the WizardFlow, see {@link #addViewStep(Class, boolean)}
+         * @param stepClass
+         *            The class of {@link ViewStep} to create (if necessary)
+         * @return Builder for creating a wizard flow
+         */
+        public Builder addViewStep(Class<? extends ViewStep> stepClass) {
+            return addViewStep(stepClass, false);
+        }
+
+        /**
+         * Add a {@link ViewStep} to the WizardFlow. Flows of ViewSteps are navigated by a {@link ViewWizard}
+         * and can't hold {@link WizardStep}s, their sub-flows must be flows of ViewSteps as well.
+         * @param stepClass
+         *            The class of {@link ViewStep} to create (if necessary)
+         * @param isRequired
+         *            Determine if the step is required before advancing to the next step
+         * @return Builder for creating a wizard flow
+         */
+        public Builder addViewStep(Class<? extends ViewStep> stepClass, boolean isRequired) {
+            wizardSteps.add(StepMetaData.forViewStep(isRequired, stepClass));
+            return this;
+        }
+
+        /**
+         * Embed a child flow sharing the wizard context. The wizard enters the child flow when it reaches this
+         * position and continues with the next position of this flow after the child's last step.
+         * The child flow is only set up when entered, see {@link SubFlow}.
+         * @param subFlow
+         *            The child flow
+         * @return Builder for creating a wizard flow
+         */
+        public Builder addSubFlow(SubFlow subFlow) {
+            return addSubFlow(subFlow, false);
+        }
+
+        /**
+         * Embed a child flow, see {@link #addSubFlow(SubFlow)}.
+         * @param subFlow
+         *            The child flow
+         * @param scopedContext
+         *            True to drop the context variables added by the child flow's steps when the wizard leaves it,
+         *            false to keep them in the shared wizard context
+         * @return Builder for creating a wizard flow
+         */
+        public Builder addSubFlow(SubFlow subFlow, boolean scopedContext) {
+            wizardSteps.add(new StepMetaData(subFlow, scopedContext));
+            return this;
+        }
+
+        /**
+         * Add a branch to the last added step. When the wizard leaves the step and the context variable
+         * has the given value, the wizard jumps to the target step instead of the next one.
+         * Branches are evaluated in the order they were added.
+         * @param variable
+         *            The name of the context variable to check
+         * @param value
+         *            The value of the variable, compared with the string representation of the context value
+         * @param targetPosition
+         *            The position of the step to jump to
+         * @return Builder for creating a wizard flow
+         */
+        public Builder addBranch(String variable, String value, int targetPosition) {
+            if (wizardSteps.isEmpty()) {
+                throw new IllegalStateException("Cannot add a branch. No step has been added! Call Builder#addStep(stepClass) first.");
+            }
+            wizardSteps.get(wizardSteps.size() - 1).addBranch(new Branch(variable, value, targetPosition));
+            return this;
+        }
+
+        /**
+         * Set the initial values of context variables. These values are put in the wizard context
+         * when the wizard starts, before the values of the wizard's own context variables.
+         * @param initialContext
+         *            Bundle holding the initial values
+         * @return Builder for creating a wizard flow
+         */
+        public Builder setInitialContext(Bundle initialContext) {
+            this.initialContext = initialContext;
+            return this;
+        }
+
 		/**
 		 * Create a new {@link WizardFlow} object.
 		 * @return WizardFlow Instance of WizardFlow
 		 */
 		public WizardFlow create() {
 			if (wizardSteps.size() > 0) {
-				return new WizardFlow(wizardSteps);
+                boolean fragmentSteps = false;
+                boolean viewSteps = false;
+                for (StepMetaData stepMetaData : wizardSteps) {
+                    fragmentSteps |= stepMetaData.getStepClass() != null;
+                    viewSteps |= stepMetaData.getViewStepClass() != null;
+                }
+                if (fragmentSteps && viewSteps) {
+                    throw new RuntimeException("Cannot create WizardFlow. A flow can't hold both WizardSteps and ViewSteps.");
+                }
+                for (StepMetaData stepMetaData : wizardSteps) {
+                    if (stepMetaData.getBranches() == null) continue;
+                    for (Branch branch : stepMetaData.getBranches()) {
+                        if (branch.target < 0 || branch.target >= wizardSteps.size()) {
+                            throw new RuntimeException("Cannot create WizardFlow. Branch on '" + branch.variable
+                                    + "' targets step " + branch.target + " which is not part of the flow.");
+                        }
+                    }
+                }
+				return new WizardFlow(new ArrayList<StepMetaData>(wizardSteps), initialContext);
 			}
 			else {
 				throw new RuntimeException("Cannot create WizardFlow. No step has been added! Call Builder#addStep(stepClass) to add steps to the wizard flow.");
@@ -0,0 +1,149 @@
+package org.codepond.wizardroid;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * Loads a {@link WizardFlow} from a binary flow asset. Flow assets are compiled at build time from the flow
+ * definitions in {@code src/main/flows} by the {@code compileWizardFlows} Gradle task (see {@code flows.gradle}),
+ * so loading them is a sequential read of the steps, branches and initial context variables without any
+ * parsing. Use it from your wizard's {@link WizardFragment#onSetup()}:
+ * <pre>
+ * public WizardFlow onSetup() {
+ *     return WizardFlowLoader.load(getActivity(), "form");
+ * }
+ * </pre>
+ */
+public final class WizardFlowLoader {
+    /**
+     * Directory within the assets where compiled flows are placed
+     */
+    public static final String ASSET_DIR = "wizardroid/";
+    /**
+     * File extension of compiled flows
+     */
+    public static final String ASSET_EXTENSION = ".flow";
+
+    static final int MAGIC = 0x575A464C;
+    static final int VERSION = 1;
+
+    static final byte TYPE_STRING = 0;
+    static final byte TYPE_INT = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_BOOLEAN = 3;
+    static final byte TYPE_DOUBLE = 4;
+    static final byte TYPE_FLOAT = 5;
+
+    //Loaded flow definitions by name, each load returns a new session of the definition
+    private static final HashMap<String, WizardFlow> definitions = new HashMap<String, WizardFlow>();
+
+    private WizardFlowLoader() {
+    }
+
+    /**
+     * Load a compiled flow from the application's assets. The asset is read once, later calls return
+     * new sessions of the same flow definition.
+     * @param context any context of the application
+     * @param name the name of the flow, which is the name of its definition file without extension
+     * @return WizardFlow Instance of WizardFlow
+     */
+    public static WizardFlow load(Context context, String name) {
+        synchronized (definitions) {
+            final WizardFlow definition = definitions.get(name);
+            if (definition != null) {
+                return definition.newSession();
+            }
+        }
+        InputStream in = null;
+        try {
+            in = context.getAssets().open(ASSET_DIR + name + ASSET_EXTENSION);
+            final WizardFlow definition = load(in);
+            synchronized (definitions) {
+                definitions.put(name, definition);
+            }
+            return definition.newSession();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot load wizard flow '" + name + "'", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Load a compiled flow from a stream. The stream is not closed.
+     * @param stream stream positioned at the beginning of a compiled flow
+     * @return WizardFlow Instance of WizardFlow
+     */
+    @SuppressWarnings("unchecked")
+    public static WizardFlow load(InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a compiled wizard flow");
+        }
+        final int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported compiled wizard flow version " + version);
+        }
+
+        final WizardFlow.Builder builder = new WizardFlow.Builder();
+
+        final int variablesCount = in.readUnsignedShort();
+        if (variablesCount > 0) {
+            final Bundle initialContext = new Bundle();
+            for (int i = 0; i < variablesCount; i++) {
+                final String name = in.readUTF();
+                final byte type = in.readByte();
+                switch (type) {
+                    case TYPE_STRING:
+                        initialContext.putString(name, in.readUTF());
+                        break;
+                    case TYPE_INT:
+                        initialContext.putInt(name, in.readInt());
+                        break;
+                    case TYPE_LONG:
+                        initialContext.putLong(name, in.readLong());
+                        break;
+                    case TYPE_BOOLEAN:
+                        initialContext.putBoolean(name, in.readBoolean());
+                        break;
+                    case TYPE_DOUBLE:
+                        initialContext.putDouble(name, in.readDouble());
+                        break;
+                    case TYPE_FLOAT:
+                        initialContext.putFloat(name, in.readFloat());
+                        break;
+                    default:
+                        throw new IOException("Unknown type " + type + " of variable '" + name + "'");
+                }
+            }
+            builder.setInitialContext(initialContext);
+        }
+
+        final int stepsCount = in.readUnsignedShort();
+        for (int i = 0; i < stepsCount; i++) {
+            final String className = in.readUTF();
+            final boolean required = in.readBoolean();
+            try {
+                builder.addStep((Class<? extends WizardStep>) Class.forName(className), required);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Step class " + className + " not found", e);
+            }
+            final int branchesCount = in.readUnsignedByte();
+            for (int j = 0; j < branchesCount; j++) {
+                builder.addBranch(in.readUTF(), in.readUTF(), in.readUnsignedShort());
+            }
+        }
+        return builder.create();
+    }
+}
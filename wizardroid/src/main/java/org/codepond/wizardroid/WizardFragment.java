@@ -4,12 +4,17 @@ import android.app.Activity;
 import android.content.Context;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.view.ViewPager;
 import android.util.Log;
 
 import android.view.View;
 import android.view.inputmethod.InputMethodManager;
 import org.codepond.wizardroid.persistence.ContextManager;
 import org.codepond.wizardroid.persistence.ContextManagerImpl;
+import org.codepond.wizardroid.persistence.ScopedContextManager;
+import org.codepond.wizardroid.validation.ValidationFailure;
 
 import java.util.List;
 
@@ -24,45 +29,122 @@ import java.util.List;
  * Keep in mind that if for some reason you are not able to extend this class and have to implement your
  * own, then wizard context persistence is totally up to you by implementing {@link ContextManager} and passing
  * an instance of it when you construct {@link Wizard}.
+ * The wizard engine (flow session, context and wizard state) is retained across configuration changes,
+ * so a rotation only re-creates the views. The saved instance state is only used after the process was killed.
  */
-public abstract class WizardFragment extends Fragment implements Wizard.WizardCallbacks {
+public abstract class WizardFragment extends Fragment implements Wizard.WizardCallbacks, Wizard.ValidationCallbacks {
 	private static final String TAG = WizardFragment.class.getSimpleName();
     private static final String STATE_WIZARD_CONTEXT = "ContextVariable";
+    private static final String ENGINE_TAG_PREFIX = "org.codepond.wizardroid.engine:";
     private WizardFlow flow;
     private ContextManager contextManager;
+    //Engine retained across configuration changes, null if this fragment created a new one
+    private EngineHolder retainedEngine;
 
     protected Wizard wizard;
 
+    /**
+     * Headless fragment retaining the wizard engine across configuration changes. Only meant to be used by
+     * WizardFragment, public so that the fragment manager can instantiate it.
+     */
+    public static class EngineHolder extends Fragment {
+        WizardFlow flow;
+        ContextManager contextManager;
+        Wizard wizard;
+
+        public EngineHolder() {
+            setRetainInstance(true);
+        }
+    }
+
     @Override
     public void onAttach(Activity activity) {
         super.onAttach(activity);
+        final Fragment holder = findEngineHolder(activity);
+        if (holder instanceof EngineHolder && ((EngineHolder) holder).wizard != null) {
+            //Configuration change, take over the retained engine
+            retainedEngine = (EngineHolder) holder;
+            flow = retainedEngine.flow;
+            contextManager = retainedEngine.contextManager;
+            wizard = retainedEngine.wizard;
+            return;
+        }
         Log.i(TAG, "Loading wizard data");
-        flow = onSetup();
-        if (flow == null) {
+        final WizardFlow definition = onSetup();
+        if (definition == null) {
             throw new IllegalArgumentException("Error setting up the Wizard's flow. You must override WizardFragment#onSetup " +
                     "and use WizardFlow.Builder to create the Wizard's flow followed by WizardFragment#super.onSetup(flow)");
         }
+        //The wizard runs its own session, leaving the returned flow untouched so it can be shared
+        flow = definition.newSession();
     }
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
+        //Host the steps in a ViewPager if the wizard layout provides one
+        final View stepContainer = getView() != null ? getView().findViewById(R.id.step_container) : null;
+        final ViewPager pager = stepContainer instanceof ViewPager ? (ViewPager) stepContainer : null;
+
+        if (retainedEngine != null) {
+            //Only the views were re-created, bind this fragment's fields and reattach the wizard to them
+            contextManager.loadStepContext(this);
+            wizard.attach(this, getChildFragmentManager(), pager);
+            return;
+        }
+
         if (savedInstanceState != null) {
-            flow.loadFlow(savedInstanceState);
+            final boolean traced = WizardTrace.beginSection("WizardFlow.loadFlow", null);
+            try {
+                flow.loadFlow(savedInstanceState);
+            } finally {
+                WizardTrace.endSection(traced);
+            }
             //Load pre-saved wizard context
             contextManager.setContext(savedInstanceState.getBundle(STATE_WIZARD_CONTEXT));
         }
         else {
-            //Initialize wizard context
-            contextManager.setContext(new Bundle());
+            //Initialize wizard context with the flow's initial context variables
+            final Bundle context = new Bundle();
+            flow.initContext(context);
+            contextManager.setContext(context);
         }
 
-        wizard = new Wizard(flow, contextManager, this, getActivity(), getChildFragmentManager());
+        wizard = new Wizard(flow, contextManager, this, getActivity(), getChildFragmentManager(), pager);
 
         //Persist hosting activity/fragment fields to wizard context enabling easy data transfer between
         //wizard host and the steps
         contextManager.persistStepContext(this);
+
+        //Resume at the saved position after the process was killed
+        wizard.restoreInstanceState(savedInstanceState);
+
+        retainEngine();
+    }
+
+    private void retainEngine() {
+        final FragmentManager activityFragments = getActivity().getSupportFragmentManager();
+        final Fragment existing = findEngineHolder(getActivity());
+        final EngineHolder holder = existing instanceof EngineHolder ? (EngineHolder) existing : new EngineHolder();
+        holder.flow = flow;
+        holder.contextManager = contextManager;
+        holder.wizard = wizard;
+        if (existing == null) {
+            activityFragments.beginTransaction().add(holder, getEngineTag()).commit();
+        }
+        retainedEngine = holder;
+    }
+
+    private Fragment findEngineHolder(Activity activity) {
+        if (!(activity instanceof FragmentActivity)) {
+            return null;
+        }
+        return ((FragmentActivity) activity).getSupportFragmentManager().findFragmentByTag(getEngineTag());
+    }
+
+    private String getEngineTag() {
+        return ENGINE_TAG_PREFIX + (getTag() != null ? getTag() : String.valueOf(getId()));
     }
 
     /**
@@ -77,12 +159,22 @@ public abstract class WizardFragment extends Fragment implements Wizard.WizardCa
      */
     @Override
     public void onStepChanged() {
+        final boolean traced = WizardTrace.beginSection("WizardFragment.onStepChanged", wizard.getCurrentStep());
+        try {
+            hideSoftInput();
+        } finally {
+            WizardTrace.endSection(traced);
+        }
+    }
+
+    private void hideSoftInput() {
         // in order to hide software input method we need to authorize with window token from focused window
         // this code relies on (somewhat fragile) assumption, that the only window, that can hold
         // software keyboard focus during fragment switch, one with fragment itself.
         final InputMethodManager mgr = (InputMethodManager) getActivity().getSystemService(Context.INPUT_METHOD_SERVICE);
 
-        View focusedWindowChild = wizard.getCurrentStep().getView();
+        final WizardStep currentStep = wizard.getCurrentStep();
+        View focusedWindowChild = currentStep != null ? currentStep.getView() : null;
         if (focusedWindowChild == null)
             focusedWindowChild = getActivity().getCurrentFocus();
         if (focusedWindowChild == null)
@@ -90,6 +182,14 @@ public abstract class WizardFragment extends Fragment implements Wizard.WizardCa
         mgr.hideSoftInputFromWindow(focusedWindowChild.getWindowToken(), 0);
     }
 
+    /**
+     * Persist the current values of this wizard's context variables to the wizard context.
+     * Steps observing a changed variable are notified, see {@link WizardStep#observeContext}.
+     */
+    protected void persistContext() {
+        contextManager.persistStepContext(this);
+    }
+
     /**
      * @return {@link Wizard}, associated with this fragment. Children fragments should not need to
      * access it directly, unless certain degree of automation is needed.
@@ -101,11 +201,57 @@ public abstract class WizardFragment extends Fragment implements Wizard.WizardCa
     @Override
 	public void onSaveInstanceState(Bundle outState) {
 		super.onSaveInstanceState(outState);
-        flow.persistFlow(outState);
-        //Persist wizard context
-        outState.putBundle(STATE_WIZARD_CONTEXT, contextManager.getContext());
+        final boolean traced = WizardTrace.beginSection("WizardFlow.persistFlow", null);
+        try {
+            flow.persistFlow(outState);
+        } finally {
+            WizardTrace.endSection(traced);
+        }
+        if (wizard != null) {
+            wizard.saveInstanceState(outState);
+        }
+        //Persist wizard context, leaving out context variables whose scope ended
+        outState.putBundle(STATE_WIZARD_CONTEXT, contextManager instanceof ScopedContextManager
+                ? ((ScopedContextManager) contextManager).getSavedContext()
+                : contextManager.getContext());
 	}
 
+    /**
+     * Drop the result of a validation still running when the wizard goes away
+     */
+    @Override
+    public void onDetach() {
+        if (wizard != null) {
+            wizard.detach();
+        }
+        super.onDetach();
+    }
+
+    /**
+     * Release the retained wizard engine unless the fragment is only re-created for a configuration change
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        final Activity activity = getActivity();
+        if (retainedEngine != null && (isRemoving() || activity == null || activity.isFinishing())) {
+            retainedEngine.wizard = null;
+            if (retainedEngine.isAdded()) {
+                retainedEngine.getFragmentManager().beginTransaction().remove(retainedEngine).commitAllowingStateLoss();
+            }
+            retainedEngine = null;
+        }
+    }
+
+    /**
+     * Event triggered when the validators registered with {@link Wizard#addValidator(org.codepond.wizardroid.validation.WizardValidator)}
+     * failed on finish. The wizard already moved to the first failing step. Default implementation does nothing,
+     * override it to show the failures.
+     */
+    @Override
+    public void onValidationFailed(List<ValidationFailure> failures) {
+    }
+
     /**
      * Execute when wizard is complete.
      */
@@ -116,6 +262,8 @@ public abstract class WizardFragment extends Fragment implements Wizard.WizardCa
 
     /**
 	 * Set up the Wizard's flow. Use {@link WizardFlow.Builder} to create the Wizard's flow.
+	 * The wizard runs a new session of the returned flow, so the flow can be created once and kept
+	 * in a static field instead of being rebuilt every time the fragment is attached.
 	 */
 	public abstract WizardFlow onSetup();
 }
\ No newline at end of file
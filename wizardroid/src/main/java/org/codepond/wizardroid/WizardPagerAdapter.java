@@ -0,0 +1,125 @@
+package org.codepond.wizardroid;
+
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentStatePagerAdapter;
+import android.util.SparseArray;
+import android.view.ViewGroup;
+
+import org.codepond.wizardroid.persistence.ContextManager;
+
+/**
+ * Pager adapter used by {@link Wizard} when the wizard is hosted in a {@link android.support.v4.view.ViewPager}.
+ * Built on top of {@link FragmentStatePagerAdapter}, so only the steps within the pager's offscreen page limit
+ * are kept alive, while the rest are kept as saved fragment state. This keeps memory bounded for long flows.
+ * The adapter only exposes the steps up to the first required and incomplete step, preventing the user from
+ * swiping past it. An adapter shows a single flow, the wizard replaces the adapter when it enters or leaves a
+ * sub-flow, dropping the live steps and the saved state of the steps of the previous flow with it.
+ */
+class WizardPagerAdapter extends FragmentStatePagerAdapter {
+    private final WizardFlow wizardFlow;
+    private final ContextManager contextManager;
+    private final SparseArray<WizardStep> liveSteps = new SparseArray<WizardStep>();
+
+    private int staleFrom = Integer.MAX_VALUE;
+    private int currentPosition;
+
+    /**
+     * Empty page standing for a sub-flow entry, the wizard enters the sub-flow when the page is selected
+     */
+    public static class SubFlowStep extends WizardStep {
+    }
+
+    WizardPagerAdapter(FragmentManager fm, WizardFlow wizardFlow, ContextManager contextManager) {
+        super(fm);
+        this.wizardFlow = wizardFlow;
+        this.contextManager = contextManager;
+    }
+
+    @Override
+    public Fragment getItem(int i) {
+        if (wizardFlow.getSubFlow(i) != null) {
+            return new SubFlowStep();
+        }
+        try {
+            final WizardStep step = wizardFlow.getStepClass(i).newInstance();
+            contextManager.loadStepContext(step);
+            return step;
+        } catch (InstantiationException e) {
+            throw new RuntimeException("Failed to instantiate step at position " + i, e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to instantiate step at position " + i, e);
+        }
+    }
+
+    @Override
+    public Object instantiateItem(ViewGroup container, int position) {
+        final WizardStep step = (WizardStep) super.instantiateItem(container, position);
+        liveSteps.put(position, step);
+        return step;
+    }
+
+    @Override
+    public void destroyItem(ViewGroup container, int position, Object object) {
+        liveSteps.remove(position);
+        super.destroyItem(container, position, object);
+    }
+
+    @Override
+    public int getItemPosition(Object object) {
+        final int index = liveSteps.indexOfValue((WizardStep) object);
+        if (index >= 0 && liveSteps.keyAt(index) < staleFrom) {
+            return POSITION_UNCHANGED;
+        }
+        return POSITION_NONE;
+    }
+
+    @Override
+    public int getCount() {
+        return Math.max(wizardFlow.getAvailableStepsCount(), currentPosition + 1);
+    }
+
+    /**
+     * Set the position of the current step. The pages up to the current step stay available when a branch
+     * skipped a required and incomplete step to reach it.
+     * @param position the position of the current step
+     * @return true if the amount of pages changed and the pager needs to be notified
+     */
+    boolean setCurrentPosition(int position) {
+        final int count = getCount();
+        currentPosition = position;
+        return getCount() != count;
+    }
+
+    /**
+     * Get the live step instance at the specified position
+     * @param position the position of the step within the WizardFlow
+     * @return the step or null if the step is not currently alive in the pager
+     */
+    WizardStep getStep(int position) {
+        return liveSteps.get(position);
+    }
+
+    /**
+     * Get the position of a live step instance
+     * @return the position or -1 if the step is not alive in the pager
+     */
+    int getStepPosition(WizardStep step) {
+        final int index = liveSteps.indexOfValue(step);
+        return index >= 0 ? liveSteps.keyAt(index) : -1;
+    }
+
+    /**
+     * Re-create the live steps from the specified position onward so they bind the latest wizard context.
+     * Steps before the position are left untouched.
+     * @param position the first position whose context is stale
+     */
+    void invalidateFrom(int position) {
+        staleFrom = position;
+        try {
+            notifyDataSetChanged();
+        } finally {
+            staleFrom = Integer.MAX_VALUE;
+        }
+    }
+}
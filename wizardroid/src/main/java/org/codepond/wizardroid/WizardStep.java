@@ -3,9 +3,12 @@ package org.codepond.wizardroid;
 import android.app.Activity;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
-import org.codepond.wizardroid.persistence.ContextVariable;
+import org.codepond.wizardroid.persistence.ContextKey;
+import org.codepond.wizardroid.persistence.ContextObserver;
+import org.codepond.wizardroid.persistence.ContextVariableFields;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Date;
 
 /**
@@ -16,6 +19,10 @@ import java.util.Date;
 public abstract class WizardStep extends Fragment {
 	private static final String TAG = WizardStep.class.getSimpleName();
 
+    //Observers added by the step and the keys they observe, at the same index
+    private ArrayList<String> observedKeys;
+    private ArrayList<ContextObserver> contextObservers;
+
     /**
      * Step exit code when wizard proceeds to the next step
      */
@@ -38,11 +45,64 @@ public abstract class WizardStep extends Fragment {
 
 
     /**
-     * Notify the wizard that this step state had changed
+     * Notify the wizard that this step state had changed. Can be called from any thread, e.g. from a network
+     * callback, the wizard applies the change on the main thread.
      * @param isStepCompleted true if this step is completed, false if it's incomplete
      */
     public final void notifyCompleted(boolean isStepCompleted) {
-        getWizard().onStepCompleted(isStepCompleted);
+        getWizard().onStepCompleted(this, isStepCompleted);
+    }
+
+    /**
+     * Get the value of a wizard context variable
+     * @param key the typed key of the variable
+     * @return the value or null if the variable has no value
+     */
+    protected final <T> T getContextValue(ContextKey<T> key) {
+        return getWizard().getContextValue(key);
+    }
+
+    /**
+     * Set the value of a wizard context variable
+     * @param key the typed key of the variable
+     * @param value the new value or null to remove the value
+     */
+    protected final <T> void putContextValue(ContextKey<T> key, T value) {
+        getWizard().putContextValue(key, value);
+    }
+
+    /**
+     * Observe a wizard context variable for as long as this step is attached. Use it to update only the views
+     * depending on a variable when another step or the wizard host changes its value, instead of
+     * waiting for the step to be re-created.
+     * @param key the name of the context variable
+     * @param observer the observer to notify on the main thread
+     */
+    protected final void observeContext(String key, ContextObserver observer) {
+        getWizard().addContextObserver(key, observer);
+        if (contextObservers == null) {
+            observedKeys = new ArrayList<String>(1);
+            contextObservers = new ArrayList<ContextObserver>(1);
+        }
+        observedKeys.add(key);
+        contextObservers.add(observer);
+    }
+
+    /**
+     * Removes the observers added by {@link #observeContext(String, ContextObserver)}.
+     * Make sure to call super.onDetach(), if you override this method in your step class.
+     */
+    @Override
+    public void onDetach() {
+        if (contextObservers != null) {
+            final Wizard wizard = getWizard();
+            for (int i = 0; i < contextObservers.size(); i++) {
+                wizard.removeContextObserver(observedKeys.get(i), contextObservers.get(i));
+            }
+            observedKeys = null;
+            contextObservers = null;
+        }
+        super.onDetach();
     }
 
     protected Wizard getWizard() {
@@ -64,12 +124,20 @@ public abstract class WizardStep extends Fragment {
     }
 
     private void bindFields(Bundle args) {
+        final boolean traced = WizardTrace.beginSection("WizardStep.bindFields", this);
+        try {
+            bindFieldsInternal(args);
+        } finally {
+            WizardTrace.endSection(traced);
+        }
+    }
+
+    private void bindFieldsInternal(Bundle args) {
         //Scan the step for fields annotated with @ContextVariable
         //and bind value if found in step's arguments
-        Field[] fields = this.getClass().getDeclaredFields();
+        Field[] fields = ContextVariableFields.get(this.getClass());
         for (Field field : fields) {
-            if (field.getAnnotation(ContextVariable.class) != null && args.containsKey(field.getName())) {
-                field.setAccessible(true);
+            if (args.containsKey(field.getName())) {
                 try {
                     if (field.getType() == Date.class) {
                         field.set(this, new Date(args.getLong(field.getName())));
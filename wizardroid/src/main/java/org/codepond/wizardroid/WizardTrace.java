@@ -0,0 +1,92 @@
+package org.codepond.wizardroid;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Opt-in system trace sections around the wizard's work, visible in Systrace and Perfetto.
+ * Sections are labelled with the operation and the step class, e.g. "Wizard.goNext FormStep1".
+ * Tracing is disabled by default and costs a single field read per section while disabled.
+ * Call {@link #setEnabled(boolean)} to enable it, e.g. in debug builds. Requires API level 18,
+ * on older platforms sections are ignored. Each section ends only if it was begun, so toggling tracing
+ * while a section is open doesn't unbalance the trace:
+ * <pre>
+ * final boolean traced = WizardTrace.beginSection("Wizard.goNext", step);
+ * try {
+ *     ...
+ * } finally {
+ *     WizardTrace.endSection(traced);
+ * }
+ * </pre>
+ */
+public final class WizardTrace {
+    private static volatile boolean enabled;
+
+    private WizardTrace() {
+    }
+
+    /**
+     * Enable or disable wizard trace sections
+     * @param enabled true to emit trace sections
+     */
+    public static void setEnabled(boolean enabled) {
+        WizardTrace.enabled = enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    /**
+     * Check if wizard trace sections are enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Begin a trace section. Must be followed by a call to {@link #endSection(boolean)} on the same thread.
+     * @param name name of the operation
+     * @param step the step the operation works on, may be null
+     * @return true if the section was begun, to pass to {@link #endSection(boolean)}
+     */
+    public static boolean beginSection(String name, Object step) {
+        if (enabled) {
+            beginSectionInternal(name, step != null ? step.getClass() : null);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Begin a trace section. Must be followed by a call to {@link #endSection(boolean)} on the same thread.
+     * @param name name of the operation
+     * @param stepClass the class of the step the operation works on, may be null
+     * @return true if the section was begun, to pass to {@link #endSection(boolean)}
+     */
+    public static boolean beginSection(String name, Class<?> stepClass) {
+        if (enabled) {
+            beginSectionInternal(name, stepClass);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * End the last trace section begun on the current thread
+     * @param begun the value returned by the matching beginSection call
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public static void endSection(boolean begun) {
+        if (begun) {
+            Trace.endSection();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSectionInternal(String name, Class<?> stepClass) {
+        String label = stepClass != null ? name + " " + stepClass.getSimpleName() : name;
+        //Trace section names are limited to 127 characters
+        if (label.length() > 127) {
+            label = label.substring(0, 127);
+        }
+        Trace.beginSection(label);
+    }
+}
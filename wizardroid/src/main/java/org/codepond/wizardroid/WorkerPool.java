@@ -0,0 +1,34 @@
+package org.codepond.wizardroid;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of daemon worker threads shared by the wizard's background work, such as validation and
+ * step warm-up, so each of them doesn't start threads of its own.
+ */
+class WorkerPool {
+    private static Executor executor;
+
+    private WorkerPool() {
+    }
+
+    static synchronized Executor get() {
+        if (executor == null) {
+            final int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "WizardWorker #" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
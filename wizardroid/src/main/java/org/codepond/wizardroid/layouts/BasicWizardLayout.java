@@ -19,17 +19,19 @@ import org.codepond.wizardroid.persistence.ContextManagerImpl;
  * Override {@link WizardFragment#onSetup()} to set up the wizard's flow
  * and optionally {@link WizardFragment#onWizardComplete()} to handle wizard's finish event.
  * Note that button labels are changeable by calling {@link #setNextButtonText(String)}, {@link #setBackButtonText(String)} and
- * {@link #setFinishButtonText(String)}.
+ * {@link #setFinishButtonText(String)}. A step progress indicator can be shown by calling {@link #setProgressVisible(boolean)}.
 
  */
 public abstract class BasicWizardLayout extends WizardFragment implements View.OnClickListener {
 
     private Button nextButton;
     private Button previousButton;
+    private StepProgressView progressView;
 
     private String nextButtonText;
     private String finishButtonText;
     private String backButtonText;
+    private boolean progressVisible;
 
     /**
      * @param contextManager {@link ContextManager}, used to persist fragment's variables
@@ -60,10 +62,25 @@ public abstract class BasicWizardLayout extends WizardFragment implements View.O
         previousButton = (Button) wizardLayout.findViewById(R.id.wizard_previous_button);
         previousButton.setOnClickListener(this);
         previousButton.setText(getBackButtonLabel());
+        progressView = (StepProgressView) wizardLayout.findViewById(R.id.wizard_progress);
+        progressView.setVisibility(progressVisible ? View.VISIBLE : View.GONE);
 
         return wizardLayout;
     }
 
+    /**
+     * Attaching the wizard to the step container so that flinging it navigates the wizard
+     */
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        final View stepContainer = getView().findViewById(R.id.step_container);
+        if (stepContainer instanceof ScrollableViewPager) {
+            ((ScrollableViewPager) stepContainer).setWizard(wizard);
+        }
+        progressView.setWizard(wizard);
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -123,6 +140,23 @@ public abstract class BasicWizardLayout extends WizardFragment implements View.O
         nextButton.setText(wizard.isLastStep()
                 ? getFinishButtonText()
                 : getNextButtonLabel());
+
+        //Redraw the steps whose state changed
+        if (progressVisible) {
+            progressView.update();
+        }
+    }
+
+    /**
+     * Show or hide the built-in step progress indicator. The indicator is hidden by default.
+     * @param progressVisible true to show the progress indicator
+     */
+    public void setProgressVisible(boolean progressVisible) {
+        this.progressVisible = progressVisible;
+        if (progressView != null) {
+            progressView.setVisibility(progressVisible ? View.VISIBLE : View.GONE);
+            progressView.update();
+        }
     }
 
     /**
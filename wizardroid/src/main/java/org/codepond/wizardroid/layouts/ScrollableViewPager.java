@@ -1,53 +1,151 @@
 package org.codepond.wizardroid.layouts;
 
 import android.content.Context;
+import android.support.v4.view.MotionEventCompat;
 import android.support.v4.view.ViewPager;
 import android.util.AttributeSet;
-import android.view.GestureDetector;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
+import android.view.ViewConfiguration;
+import android.view.ViewParent;
+
+import org.codepond.wizardroid.Wizard;
 
 /**
- * Created by uniqa on 10/23/14.
+ * ViewPager used as the container for wizard's steps. It decides the drag axis of each gesture from the
+ * system touch slop: horizontal gestures are locked to the pager, so scrolling parents (such as a ScrollView)
+ * won't steal them, while vertical gestures are left to the step's own scrolling views.
+ * When attached to a {@link Wizard} via {@link #setWizard(Wizard)}, a horizontal fling navigates to the
+ * next or previous step the same way the wizard's buttons do, respecting {@link Wizard#canGoNext()}.
+ * The touch path does not allocate per event.
  */
 public class ScrollableViewPager extends ViewPager {
-    boolean xScored = false, yScored = false;
+    private static final int AXIS_NONE = 0;
+    private static final int AXIS_X = 1;
+    private static final int AXIS_Y = 2;
+
+    private final int touchSlop;
+    private final int minFlingVelocity;
+    private final int maxFlingVelocity;
+
+    private VelocityTracker velocityTracker;
+    private Wizard wizard;
+
+    private int axis = AXIS_NONE;
+    private float downX;
+    private float downY;
 
     public ScrollableViewPager(Context context) {
-        super(context);
+        this(context, null);
     }
 
     public ScrollableViewPager(Context context, AttributeSet attrs) {
         super(context, attrs);
+        final ViewConfiguration configuration = ViewConfiguration.get(context);
+        touchSlop = configuration.getScaledTouchSlop();
+        minFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        maxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+    }
+
+    /**
+     * Attach the wizard which is navigated when the user flings the pager
+     * @param wizard the wizard hosted by this pager or null to let the pager handle flings by itself
+     */
+    public void setWizard(Wizard wizard) {
+        this.wizard = wizard;
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        trackAxis(ev);
+        final boolean handled = super.dispatchTouchEvent(ev);
+        final int action = MotionEventCompat.getActionMasked(ev);
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            reset();
+        }
+        return handled;
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(MotionEvent ev) {
+        //The pager must see every event to keep its drag state, only vertical gestures are left to the step's views
+        final boolean intercept = super.onInterceptTouchEvent(ev);
+        return intercept && axis != AXIS_Y;
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent ev) {
-        mGestureDetector.onTouchEvent(ev);
-        if (ev.getAction() == MotionEvent.ACTION_UP || ev.getAction() == MotionEvent.ACTION_CANCEL) {
-            xScored = false;
-            yScored = false;
-            requestDisallowInterceptTouchEvent(false);
+        if (MotionEventCompat.getActionMasked(ev) == MotionEvent.ACTION_UP && axis == AXIS_X && wizard != null) {
+            velocityTracker.computeCurrentVelocity(1000, maxFlingVelocity);
+            final float velocityX = velocityTracker.getXVelocity();
+            if (Math.abs(velocityX) > minFlingVelocity) {
+                //Let the pager settle back on the current step and navigate the wizard instead
+                ev.setAction(MotionEvent.ACTION_CANCEL);
+                final boolean handled = super.onTouchEvent(ev);
+                ev.setAction(MotionEvent.ACTION_UP);
+                reset();
+                if (velocityX < 0) {
+                    if (!wizard.isLastStep() && wizard.canGoNext()) {
+                        wizard.goNext();
+                    }
+                }
+                else if (!wizard.isFirstStep()) {
+                    wizard.goBack();
+                }
+                return handled;
+            }
         }
         return super.onTouchEvent(ev);
     }
 
-    GestureDetector.SimpleOnGestureListener mOnGestureListener = new GestureDetector.SimpleOnGestureListener() {
-        @Override
-        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
-            if (!yScored && Math.abs(distanceX) > Math.abs(distanceY)) {
-                xScored = true;
-                yScored = false;
-            }
-            if (xScored) {
-                requestDisallowInterceptTouchEvent(true);
-            } else if (!xScored && Math.abs(distanceY) > Math.abs(distanceX)) {
-                xScored = false;
-                yScored = true;
-                requestDisallowInterceptTouchEvent(false);
-            }
-            return true;
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (velocityTracker != null) {
+            velocityTracker.recycle();
+            velocityTracker = null;
+        }
+    }
+
+    private void trackAxis(MotionEvent ev) {
+        if (velocityTracker == null) {
+            velocityTracker = VelocityTracker.obtain();
+        }
+        switch (MotionEventCompat.getActionMasked(ev)) {
+            case MotionEvent.ACTION_DOWN:
+                axis = AXIS_NONE;
+                downX = ev.getX();
+                downY = ev.getY();
+                velocityTracker.clear();
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (axis == AXIS_NONE) {
+                    final float dx = Math.abs(ev.getX() - downX);
+                    final float dy = Math.abs(ev.getY() - downY);
+                    if (dx > touchSlop && dx > dy) {
+                        axis = AXIS_X;
+                        //Lock the gesture once so scrolling parents won't intercept it
+                        final ViewParent parent = getParent();
+                        if (parent != null) {
+                            parent.requestDisallowInterceptTouchEvent(true);
+                        }
+                    }
+                    else if (dy > touchSlop) {
+                        axis = AXIS_Y;
+                    }
+                }
+                break;
         }
+        velocityTracker.addMovement(ev);
+    }
 
-    };
-    final GestureDetector mGestureDetector = new GestureDetector(getContext(), mOnGestureListener);
+    private void reset() {
+        if (axis == AXIS_X) {
+            final ViewParent parent = getParent();
+            if (parent != null) {
+                parent.requestDisallowInterceptTouchEvent(false);
+            }
+        }
+        axis = AXIS_NONE;
+    }
 }
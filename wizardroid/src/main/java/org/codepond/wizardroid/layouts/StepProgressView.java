@@ -0,0 +1,169 @@
+package org.codepond.wizardroid.layouts;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+import org.codepond.wizardroid.R;
+import org.codepond.wizardroid.Wizard;
+import org.codepond.wizardroid.WizardFlow;
+
+/**
+ * Progress indicator showing the wizard's steps as a strip of cells. Only the window of cells that fits the view
+ * is drawn, keeping the current step in view, so the cost of drawing doesn't depend on the length of the flow.
+ * Step states are read directly from {@link WizardFlow} without allocating. Call {@link #update()} whenever
+ * the wizard's state changes, e.g. from {@link Wizard.WizardCallbacks#onStepChanged()}; only the cells whose
+ * state changed since the last update are redrawn.
+ */
+public class StepProgressView extends View {
+    private static final byte STATE_NONE = 0;
+    private static final byte STATE_PENDING = 1;
+    private static final byte STATE_REQUIRED = 2;
+    private static final byte STATE_COMPLETED = 3;
+    private static final byte STATE_CURRENT = 4;
+
+    private final Paint pendingPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint requiredPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint completedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint currentPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Rect clipBounds = new Rect();
+    private final int cellSize;
+
+    private Wizard wizard;
+    private byte[] drawnStates = new byte[0];
+    private int firstVisible;
+
+    public StepProgressView(Context context) {
+        this(context, null);
+    }
+
+    public StepProgressView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        final Resources res = getResources();
+        cellSize = res.getDimensionPixelSize(R.dimen.wizard_progress_cell_size);
+        pendingPaint.setColor(res.getColor(R.color.wizard_progress_pending));
+        requiredPaint.setColor(res.getColor(R.color.wizard_progress_required));
+        completedPaint.setColor(res.getColor(R.color.wizard_progress_completed));
+        currentPaint.setColor(res.getColor(R.color.wizard_progress_current));
+    }
+
+    /**
+     * Attach the wizard whose progress is displayed
+     * @param wizard the wizard or null to display nothing
+     */
+    public void setWizard(Wizard wizard) {
+        this.wizard = wizard;
+        update();
+    }
+
+    /**
+     * Refresh the indicator, redrawing only the cells whose state changed since the last update.
+     * The whole indicator is redrawn when the visible window of steps moves.
+     */
+    public void update() {
+        if (wizard == null) {
+            invalidate();
+            return;
+        }
+        final int first = computeFirstVisible();
+        if (first != firstVisible) {
+            firstVisible = first;
+            for (int i = 0; i < drawnStates.length; i++) {
+                drawnStates[i] = getStepState(first + i);
+            }
+            invalidate();
+            return;
+        }
+        final int top = getPaddingTop();
+        for (int i = 0; i < drawnStates.length; i++) {
+            final byte state = getStepState(first + i);
+            if (drawnStates[i] != state) {
+                drawnStates[i] = state;
+                final int left = getPaddingLeft() + i * cellSize;
+                invalidate(left, top, left + cellSize, top + cellSize);
+            }
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int height = getPaddingTop() + cellSize + getPaddingBottom();
+        setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        final int capacity = Math.max(0, (w - getPaddingLeft() - getPaddingRight()) / cellSize);
+        if (capacity != drawnStates.length) {
+            drawnStates = new byte[capacity];
+            firstVisible = -1;
+            update();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (wizard == null) {
+            return;
+        }
+        canvas.getClipBounds(clipBounds);
+        final float radius = cellSize / 4f;
+        final float cy = getPaddingTop() + cellSize / 2f;
+        for (int i = 0; i < drawnStates.length; i++) {
+            final int left = getPaddingLeft() + i * cellSize;
+            if (left + cellSize < clipBounds.left || left > clipBounds.right) {
+                continue;
+            }
+            final Paint paint = getPaint(getStepState(firstVisible + i));
+            if (paint != null) {
+                canvas.drawCircle(left + cellSize / 2f, cy, radius, paint);
+            }
+        }
+    }
+
+    private int computeFirstVisible() {
+        final int count = wizard.getFlow().getStepsCount();
+        final int capacity = drawnStates.length;
+        if (count <= capacity) {
+            return 0;
+        }
+        //Keep the current step centered within the visible window
+        final int first = wizard.getCurrentStepPosition() - capacity / 2;
+        return Math.max(0, Math.min(first, count - capacity));
+    }
+
+    private byte getStepState(int position) {
+        final WizardFlow flow = wizard.getFlow();
+        if (position < 0 || position >= flow.getStepsCount()) {
+            return STATE_NONE;
+        }
+        if (position == wizard.getCurrentStepPosition()) {
+            return STATE_CURRENT;
+        }
+        if (flow.isStepCompleted(position)) {
+            return STATE_COMPLETED;
+        }
+        return flow.isStepRequired(position) ? STATE_REQUIRED : STATE_PENDING;
+    }
+
+    private Paint getPaint(byte state) {
+        switch (state) {
+            case STATE_PENDING:
+                return pendingPaint;
+            case STATE_REQUIRED:
+                return requiredPaint;
+            case STATE_COMPLETED:
+                return completedPaint;
+            case STATE_CURRENT:
+                return currentPaint;
+            default:
+                return null;
+        }
+    }
+}
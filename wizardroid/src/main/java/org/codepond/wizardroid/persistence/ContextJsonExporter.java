@@ -0,0 +1,208 @@
+package org.codepond.wizardroid.persistence;
+
+import android.os.Bundle;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exports a wizard context as a JSON object, streaming each variable to the output as it is visited
+ * instead of building an intermediate document. Strings, boxed primitives, primitive and String arrays,
+ * Dates, nested Bundles, Collections and Maps are written natively. Other values, typically Parcelables,
+ * require an {@link Adapter} registered for their class.
+ * <pre>
+ * public void onWizardComplete() {
+ *     new ContextJsonExporter()
+ *         .registerAdapter(Address.class, new AddressAdapter())
+ *         .export(wizard.getContext(), outputStream);
+ * }
+ * </pre>
+ */
+public class ContextJsonExporter {
+    /**
+     * Writes values of a type which isn't supported natively by the exporter
+     * @param <T> type of the value
+     */
+    public interface Adapter<T> {
+        void write(T value, JsonStreamWriter writer) throws IOException;
+    }
+
+    private static final Object NO_ADAPTER = new Object();
+
+    private final HashMap<Class<?>, Object> adapters = new HashMap<Class<?>, Object>();
+    //Adapters resolved for subclasses of registered types
+    private final HashMap<Class<?>, Object> resolvedAdapters = new HashMap<Class<?>, Object>();
+
+    /**
+     * Register an adapter for values of a type and its subtypes
+     * @param type the type of the values
+     * @param adapter the adapter writing the values
+     * @return this exporter
+     */
+    public <T> ContextJsonExporter registerAdapter(Class<T> type, Adapter<? super T> adapter) {
+        adapters.put(type, adapter);
+        resolvedAdapters.clear();
+        return this;
+    }
+
+    /**
+     * Export a wizard context to a stream as UTF-8 encoded JSON. The stream is flushed but not closed.
+     * @param context the wizard context
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     * @throws RuntimeException if the context holds a value of an unsupported type
+     */
+    public void export(Bundle context, OutputStream out) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        export(context, writer);
+        writer.flush();
+    }
+
+    /**
+     * Export a wizard context as JSON
+     * @param context the wizard context
+     * @param out the writer to write to
+     * @throws IOException if writing fails
+     * @throws RuntimeException if the context holds a value of an unsupported type
+     */
+    public void export(Bundle context, Writer out) throws IOException {
+        writeBundle(context, new JsonStreamWriter(out));
+    }
+
+    private void writeBundle(Bundle bundle, JsonStreamWriter writer) throws IOException {
+        writer.beginObject();
+        for (String key : bundle.keySet()) {
+            writer.name(key);
+            writeValue(key, bundle.get(key), writer);
+        }
+        writer.endObject();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeValue(String key, Object value, JsonStreamWriter writer) throws IOException {
+        if (value == null) {
+            writer.nullValue();
+        }
+        else if (value instanceof String || value instanceof Character) {
+            writer.value(value.toString());
+        }
+        else if (value instanceof Boolean) {
+            writer.value(((Boolean) value).booleanValue());
+        }
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writer.value(((Number) value).longValue());
+        }
+        else if (value instanceof Double) {
+            writer.value(((Double) value).doubleValue());
+        }
+        else if (value instanceof Float) {
+            writer.value(((Float) value).floatValue());
+        }
+        else if (value instanceof Date) {
+            writer.value(((Date) value).getTime());
+        }
+        else if (value instanceof Bundle) {
+            writeBundle((Bundle) value, writer);
+        }
+        else if (value.getClass().isArray() && value.getClass().getComponentType().isPrimitive()) {
+            writePrimitiveArray(value, writer);
+        }
+        else if (value instanceof String[] || value instanceof CharSequence[]) {
+            writer.beginArray();
+            for (Object item : (Object[]) value) {
+                writer.value(item != null ? item.toString() : null);
+            }
+            writer.endArray();
+        }
+        else if (value instanceof CharSequence) {
+            writer.value(value.toString());
+        }
+        else {
+            final Adapter<Object> adapter = (Adapter<Object>) findAdapter(value.getClass());
+            if (adapter != null) {
+                adapter.write(value, writer);
+            }
+            else if (value instanceof Object[]) {
+                writer.beginArray();
+                for (Object item : (Object[]) value) {
+                    writeValue(key, item, writer);
+                }
+                writer.endArray();
+            }
+            else if (value instanceof Collection) {
+                writer.beginArray();
+                for (Object item : (Collection<?>) value) {
+                    writeValue(key, item, writer);
+                }
+                writer.endArray();
+            }
+            else if (value instanceof Map) {
+                writer.beginObject();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    writer.name(String.valueOf(entry.getKey()));
+                    writeValue(key, entry.getValue(), writer);
+                }
+                writer.endObject();
+            }
+            else {
+                throw new RuntimeException(String.format("Unsupported type %s of context variable %s. Register a ContextJsonExporter.Adapter for it.",
+                        value.getClass().getName(), key));
+            }
+        }
+    }
+
+    private void writePrimitiveArray(Object value, JsonStreamWriter writer) throws IOException {
+        writer.beginArray();
+        if (value instanceof int[]) {
+            for (int item : (int[]) value) writer.value(item);
+        }
+        else if (value instanceof long[]) {
+            for (long item : (long[]) value) writer.value(item);
+        }
+        else if (value instanceof boolean[]) {
+            for (boolean item : (boolean[]) value) writer.value(item);
+        }
+        else if (value instanceof double[]) {
+            for (double item : (double[]) value) writer.value(item);
+        }
+        else if (value instanceof float[]) {
+            for (float item : (float[]) value) writer.value(item);
+        }
+        else if (value instanceof short[]) {
+            for (short item : (short[]) value) writer.value(item);
+        }
+        else if (value instanceof byte[]) {
+            for (byte item : (byte[]) value) writer.value(item);
+        }
+        else {
+            for (char item : (char[]) value) writer.value(String.valueOf(item));
+        }
+        writer.endArray();
+    }
+
+    private Adapter<?> findAdapter(Class<?> type) {
+        Object adapter = adapters.get(type);
+        if (adapter != null) {
+            return (Adapter<?>) adapter;
+        }
+        adapter = resolvedAdapters.get(type);
+        if (adapter == null) {
+            adapter = NO_ADAPTER;
+            for (Map.Entry<Class<?>, Object> entry : adapters.entrySet()) {
+                if (entry.getKey().isAssignableFrom(type)) {
+                    adapter = entry.getValue();
+                    break;
+                }
+            }
+            resolvedAdapters.put(type, adapter);
+        }
+        return adapter != NO_ADAPTER ? (Adapter<?>) adapter : null;
+    }
+}
@@ -0,0 +1,221 @@
+package org.codepond.wizardroid.persistence;
+
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Typed key of a wizard context variable. Keys are interned: creating a key with a name which is already in use
+ * returns the same key, or fails if the name is already used with another type, so two steps can't silently
+ * share a variable of different types. Each key carries a precomputed slot index, used by
+ * {@link TypedContextManager} to store values in an array, and a {@link Codec} which converts the value
+ * to and from the wizard context Bundle when the context is saved or restored.
+ * Declare keys as constants shared by the steps and the wizard host:
+ * <pre>
+ * public static final ContextKey&lt;String&gt; FIRSTNAME = ContextKey.of("firstname", String.class);
+ * </pre>
+ * Values are stored under the key's name, so a key and a {@link ContextVariable} field of the same name
+ * and type refer to the same variable.
+ * @param <T> type of the value
+ */
+public final class ContextKey<T> {
+    /**
+     * Converts values of a context variable to and from the wizard context Bundle
+     * @param <T> type of the value
+     */
+    public interface Codec<T> {
+        void write(Bundle bundle, String name, T value);
+        T read(Bundle bundle, String name);
+    }
+
+    /**
+     * Codec of values kept outside of the wizard context, e.g. in a {@link LargeValueCache}, with only a
+     * reference to them written to the Bundle. {@link TypedContextManager}s don't keep the decoded values of
+     * such keys, they write them through the codec right away and read them through the codec every time.
+     * @param <T> type of the value
+     */
+    public interface ExternalCodec<T> extends Codec<T> {
+    }
+
+    private static final HashMap<String, ContextKey<?>> keys = new HashMap<String, ContextKey<?>>();
+    private static ContextKey<?>[] keysBySlot = new ContextKey<?>[16];
+    //Written under the class lock, read without it to check for newly declared keys
+    private static volatile int slotCount;
+
+    private final String name;
+    private final Class<T> type;
+    private final Codec<T> codec;
+    private final int slot;
+
+    private ContextKey(String name, Class<T> type, Codec<T> codec, int slot) {
+        this.name = name;
+        this.type = type;
+        this.codec = codec;
+        this.slot = slot;
+    }
+
+    /**
+     * Get the key of a context variable, using the built-in codec for the type. Supported types are the boxed
+     * primitives, String, Date, Parcelable and Serializable types.
+     * @param name the name of the variable
+     * @param type the type of the value
+     * @throws IllegalArgumentException if the type isn't supported or the name is already used with another type
+     */
+    public static <T> ContextKey<T> of(String name, Class<T> type) {
+        return of(name, type, null);
+    }
+
+    /**
+     * Get the key of a context variable which uses a custom codec
+     * @param name the name of the variable
+     * @param type the type of the value
+     * @param codec the codec of the value or null to use the built-in codec for the type
+     * @throws IllegalArgumentException if the name is already used with another type
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized <T> ContextKey<T> of(String name, Class<T> type, Codec<T> codec) {
+        final ContextKey<?> existing = keys.get(name);
+        if (existing != null) {
+            if (existing.type != type) {
+                throw new IllegalArgumentException(String.format("Context variable %s is already declared with type %s, cannot redeclare it with type %s",
+                        name, existing.type.getName(), type.getName()));
+            }
+            return (ContextKey<T>) existing;
+        }
+        final ContextKey<T> key = new ContextKey<T>(name, type, codec != null ? codec : new DefaultCodec<T>(type), slotCount++);
+        keys.put(name, key);
+        if (key.slot == keysBySlot.length) {
+            keysBySlot = Arrays.copyOf(keysBySlot, keysBySlot.length * 2);
+        }
+        keysBySlot[key.slot] = key;
+        return key;
+    }
+
+    /**
+     * Find the key declared for a context variable name
+     * @return the key or null if no key was declared with the name
+     */
+    static synchronized ContextKey<?> find(String name) {
+        return keys.get(name);
+    }
+
+    /**
+     * Get the key occupying a slot
+     */
+    static synchronized ContextKey<?> forSlot(int slot) {
+        return keysBySlot[slot];
+    }
+
+    /**
+     * Get the amount of slots used by the keys declared so far
+     */
+    static int getSlotCount() {
+        return slotCount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    Codec<T> getCodec() {
+        return codec;
+    }
+
+    /**
+     * Check if the key's values are kept outside of the wizard context, see {@link ExternalCodec}
+     */
+    boolean isExternal() {
+        return codec instanceof ExternalCodec;
+    }
+
+    @Override
+    public String toString() {
+        return "ContextKey[" + name + ", " + type.getSimpleName() + "]";
+    }
+
+    /**
+     * Built-in codec. The Bundle accessor is resolved once when the key is created.
+     */
+    private static final class DefaultCodec<T> implements Codec<T> {
+        private static final int STRING = 0;
+        private static final int INTEGER = 1;
+        private static final int LONG = 2;
+        private static final int BOOLEAN = 3;
+        private static final int DOUBLE = 4;
+        private static final int FLOAT = 5;
+        private static final int SHORT = 6;
+        private static final int BYTE = 7;
+        private static final int CHARACTER = 8;
+        private static final int DATE = 9;
+        private static final int PARCELABLE = 10;
+        private static final int SERIALIZABLE = 11;
+
+        private final Class<T> type;
+        private final int kind;
+
+        DefaultCodec(Class<T> type) {
+            this.type = type;
+            if (type == String.class) kind = STRING;
+            else if (type == Integer.class) kind = INTEGER;
+            else if (type == Long.class) kind = LONG;
+            else if (type == Boolean.class) kind = BOOLEAN;
+            else if (type == Double.class) kind = DOUBLE;
+            else if (type == Float.class) kind = FLOAT;
+            else if (type == Short.class) kind = SHORT;
+            else if (type == Byte.class) kind = BYTE;
+            else if (type == Character.class) kind = CHARACTER;
+            else if (type == Date.class) kind = DATE;
+            else if (Parcelable.class.isAssignableFrom(type)) kind = PARCELABLE;
+            else if (Serializable.class.isAssignableFrom(type)) kind = SERIALIZABLE;
+            else {
+                throw new IllegalArgumentException(String.format("Unsupported context variable type %s. Provide a ContextKey.Codec for it.",
+                        type.getName()));
+            }
+        }
+
+        @Override
+        public void write(Bundle bundle, String name, T value) {
+            if (value == null) {
+                bundle.remove(name);
+                return;
+            }
+            switch (kind) {
+                case STRING: bundle.putString(name, (String) value); break;
+                case INTEGER: bundle.putInt(name, (Integer) value); break;
+                case LONG: bundle.putLong(name, (Long) value); break;
+                case BOOLEAN: bundle.putBoolean(name, (Boolean) value); break;
+                case DOUBLE: bundle.putDouble(name, (Double) value); break;
+                case FLOAT: bundle.putFloat(name, (Float) value); break;
+                case SHORT: bundle.putShort(name, (Short) value); break;
+                case BYTE: bundle.putByte(name, (Byte) value); break;
+                case CHARACTER: bundle.putChar(name, (Character) value); break;
+                case DATE: bundle.putLong(name, ((Date) value).getTime()); break;
+                case PARCELABLE: bundle.putParcelable(name, (Parcelable) value); break;
+                default: bundle.putSerializable(name, (Serializable) value); break;
+            }
+        }
+
+        @Override
+        public T read(Bundle bundle, String name) {
+            if (!bundle.containsKey(name)) {
+                return null;
+            }
+            if (kind == DATE) {
+                return type.cast(new Date(bundle.getLong(name)));
+            }
+            return type.cast(bundle.get(name));
+        }
+    }
+}
@@ -1,36 +1,79 @@
 package org.codepond.wizardroid.persistence;
 
 import android.os.Bundle;
+import android.os.Looper;
 import android.os.Parcelable;
 import android.support.v4.app.Fragment;
 
 import org.codepond.wizardroid.WizardFragment;
+import org.codepond.wizardroid.WizardEventRecorder;
+import org.codepond.wizardroid.WizardTrace;
 
 import java.io.Serializable;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class implements {@link ContextManager} and uses Android
  * built-in Bundle and Fragment's arguments to pass data
- * in the wizard.
+ * in the wizard. The context is confined to the main thread: steps are loaded and persisted, and values are read and
+ * written, on the main thread only. Observers of individual context variables are notified
+ * on the main thread when a persisted step changes their values, they can be added and removed from any thread. Variables accessed
+ * through {@link ContextKey}s are kept decoded in slots and written to the Bundle lazily, except for keys with a
+ * {@link ContextKey.ExternalCodec}, whose values are kept outside of the context.
+ * Values of variables declared with a {@link ContextVariable#scope()} are dropped when their scope ends.
  */
-public class ContextManagerImpl implements ContextManager {
+public class ContextManagerImpl implements ObservableContextManager, TypedContextManager, ScopedContextManager {
+    private static final Object UNSET = new Object();
+    //Key of the variable scopes in the saved context
+    private static final String STATE_SCOPES = "wizardroid:scopes";
+    private static final int[] TOP_LEVEL_FLOW = new int[0];
 
     private Bundle context;
+    private Object[] slots = new Object[0];
+    private boolean[] dirtySlots = new boolean[0];
+    private boolean dirty;
+    //Read without locking on the main thread, updates from any thread are synchronized on the map
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<ContextObserver>> observers =
+            new ConcurrentHashMap<String, CopyOnWriteArrayList<ContextObserver>>();
+    private final ArrayList<String> changedKeys = new ArrayList<String>();
+    private final ContextScopes scopes = new ContextScopes();
+    //Identifies the events of this context in the process wide event recorder
+    private final int recorderId = WizardEventRecorder.newSourceId();
+    private int[] currentFlow = TOP_LEVEL_FLOW;
+    private int currentStep;
 
     @Override
     public void loadStepContext(Fragment step) {
-        Field[] fields = step.getClass().getDeclaredFields();
+        final boolean traced = WizardTrace.beginSection("ContextManager.loadStepContext", step);
+        final long startTime = WizardEventRecorder.start();
+        try {
+            loadStepContextInternal(step);
+        } finally {
+            WizardEventRecorder.record(recorderId, WizardEventRecorder.LOAD_CONTEXT, currentStep, context.size(), startTime);
+            WizardTrace.endSection(traced);
+        }
+    }
+
+    private void loadStepContextInternal(Fragment step) {
+        //Make values written through typed keys visible to @ContextVariable fields
+        flushSlots();
+        //Fail early on fields whose type doesn't match their ContextKey
+        ContextVariableFields.getKeys(step.getClass());
+        Field[] fields = ContextVariableFields.get(step.getClass());
         //Check if arguments were already set on setup, otherwise creates a new bundle
         Bundle args = step.getArguments();
         if (args == null) {
             args = new Bundle();
         }
-        //Scan the step for fields annotated with @ContextVariable and check if there is a value stored in the Wizard Context for the field name
+        //Check if there is a value stored in the Wizard Context for each field annotated with @ContextVariable
         for (Field field : fields) {
-            if (field.getAnnotation(ContextVariable.class) != null && context.containsKey(field.getName())) {
-                field.setAccessible(true);
+            if (context.containsKey(field.getName())) {
                 //Found a value for the annotated field, adding it to the step's argument for later binding
                 if (field.getType() == String.class) {
                     args.putString(field.getName(), context.getString(field.getName()));
@@ -62,105 +105,349 @@ public class ContextManagerImpl implements ContextManager {
                 else if (Parcelable.class.isAssignableFrom(field.getType())) {
                     args.putParcelable(field.getName(), context.getParcelable(field.getName()));
                 }
-                else if (field.getType() instanceof Serializable) {
+                else if (Serializable.class.isAssignableFrom(field.getType())) {
+                    //Including arrays, which are all Serializable
                     args.putSerializable(field.getName(), context.getSerializable(field.getName()));
                 }
                 else {
-                    //TODO: Add support for arrays
                     throw new RuntimeException(String.format("Unsuported type. Cannot pass value to variable %s of step %s. Variable type is unsuported.",
                             field.getName(), step.getClass().getName()));
                 }
             }
         }
         if (step instanceof WizardFragment) {
-            bindFields((WizardFragment)step, args);
+            bindFields(step, args);
         }
         else {
             step.setArguments(args);
         }
     }
 
+    /**
+     * Bind the values in the wizard context to the fields annotated with {@link ContextVariable} of a step which
+     * isn't a Fragment, such as a {@link org.codepond.wizardroid.ViewStep}. Fields without a value in the
+     * context are left untouched.
+     * @param step the step to bind
+     */
+    public void loadContextVariables(Object step) {
+        //Make values written through typed keys visible to @ContextVariable fields
+        flushSlots();
+        //Fail early on fields whose type doesn't match their ContextKey
+        ContextVariableFields.getKeys(step.getClass());
+        bindFields(step, context);
+    }
+
     @Override
     public void persistStepContext(Fragment step) {
-        //Scan the step for fields annotated with @ContextVariable
-        Field[] fields = step.getClass().getDeclaredFields();
-        for (Field field : fields) {
-            ContextVariable contextVar = field.getAnnotation(ContextVariable.class);
-            if (contextVar != null) {
-                //Store its value in the Wizard Context
-                field.setAccessible(true);
-                try {
-                    if (field.getType() == String.class) {
-                        context.putString(field.getName(), (String) field.get(step));
-                    }
-                    else if (field.getType() == Integer.class) {
-                        context.putInt(field.getName(), field.getInt(step));
-                    }
-                    else if (field.getType() == Boolean.class) {
-                        context.putBoolean(field.getName(), field.getBoolean(step));
-                    }
-                    else if (field.getType() == Double.class) {
-                        context.putDouble(field.getName(), field.getDouble(step));
-                    }
-                    else if (field.getType() == Float.class) {
-                        context.putFloat(field.getName(), field.getFloat(step));
-                    }
-                    else if (field.getType() == Short.class) {
-                        context.putShort(field.getName(), field.getShort(step));
-                    }
-                    else if (field.getType() == Byte.class) {
-                        context.putByte(field.getName(), field.getByte(step));
-                    }
-                    else if (field.getType() == Long.class) {
-                        context.putLong(field.getName(), field.getLong(step));
-                    }
-                    else if (field.getType() == Character.class) {
-                        context.putChar(field.getName(), field.getChar(step));
-                    }
-                    else if (Parcelable.class.isAssignableFrom(field.getType())) {
-                        context.putParcelable(field.getName(), (Parcelable) field.get(step));
-                    }
-                    else if (field.getType() == Date.class) {
-                        context.putLong(field.getName(), ((Date) field.get(step)).getTime());
-                    }
-                    else if (field.getType() instanceof Serializable) {
-                        context.putSerializable(field.getName(), (Serializable) field.get(step));
-                    }
-                    else {
-                        //TODO: Add support for arrays
-                        throw new RuntimeException(String.format("Unsuported type. Cannot pass value to variable %s of step %s. Variable type is unsuported.",
-                                field.getName(), step.getClass().getName()));
-                    }
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
+        persistContextVariables(step);
+    }
+
+    /**
+     * Store the values of the fields annotated with {@link ContextVariable} of a step in the wizard context.
+     * Unlike {@link #persistStepContext(Fragment)} the step doesn't have to be a Fragment.
+     * @param step the step to persist
+     */
+    public void persistContextVariables(Object step) {
+        checkMainThread("persist context variables");
+        final boolean traced = WizardTrace.beginSection("ContextManager.persistStepContext", step);
+        final long startTime = WizardEventRecorder.start();
+        try {
+            persistContextVariablesInternal(step);
+        } finally {
+            WizardEventRecorder.record(recorderId, WizardEventRecorder.PERSIST_CONTEXT, currentStep, context.size(), startTime);
+            WizardTrace.endSection(traced);
+        }
+    }
+
+    private void persistContextVariablesInternal(Object step) {
+        //Fields of the step annotated with @ContextVariable
+        Field[] fields = ContextVariableFields.get(step.getClass());
+        int[] fieldScopes = ContextVariableFields.getScopes(step.getClass());
+        ContextKey<?>[] fieldKeys = ContextVariableFields.getKeys(step.getClass());
+        for (int i = 0; i < fields.length; i++) {
+            final Field field = fields[i];
+            //Store its value in the Wizard Context
+            //Remember the previous value of observed variables to detect changes
+            final boolean observed = observers.containsKey(field.getName());
+            final boolean hadValue = observed && context.containsKey(field.getName());
+            final Object oldValue = hadValue ? context.get(field.getName()) : null;
+            try {
+                if (field.getType() == String.class) {
+                    context.putString(field.getName(), (String) field.get(step));
                 }
+                else if (field.getType() == Integer.class) {
+                    context.putInt(field.getName(), field.getInt(step));
+                }
+                else if (field.getType() == Boolean.class) {
+                    context.putBoolean(field.getName(), field.getBoolean(step));
+                }
+                else if (field.getType() == Double.class) {
+                    context.putDouble(field.getName(), field.getDouble(step));
+                }
+                else if (field.getType() == Float.class) {
+                    context.putFloat(field.getName(), field.getFloat(step));
+                }
+                else if (field.getType() == Short.class) {
+                    context.putShort(field.getName(), field.getShort(step));
+                }
+                else if (field.getType() == Byte.class) {
+                    context.putByte(field.getName(), field.getByte(step));
+                }
+                else if (field.getType() == Long.class) {
+                    context.putLong(field.getName(), field.getLong(step));
+                }
+                else if (field.getType() == Character.class) {
+                    context.putChar(field.getName(), field.getChar(step));
+                }
+                else if (Parcelable.class.isAssignableFrom(field.getType())) {
+                    context.putParcelable(field.getName(), (Parcelable) field.get(step));
+                }
+                else if (field.getType() == Date.class) {
+                    context.putLong(field.getName(), ((Date) field.get(step)).getTime());
+                }
+                else if (Serializable.class.isAssignableFrom(field.getType())) {
+                    //Including arrays, which are all Serializable
+                    context.putSerializable(field.getName(), (Serializable) field.get(step));
+                }
+                else {
+                    throw new RuntimeException(String.format("Unsuported type. Cannot pass value to variable %s of step %s. Variable type is unsuported.",
+                            field.getName(), step.getClass().getName()));
+                }
+            } catch (IllegalAccessException e) {
+                e.printStackTrace();
+            }
+            invalidateSlot(fieldKeys[i]);
+            scopes.record(field.getName(), fieldScopes[i], currentFlow, currentStep);
+            if (observed && (!hadValue || !equal(oldValue, context.get(field.getName())))) {
+                changedKeys.add(field.getName());
             }
         }
+        notifyObservers();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(ContextKey<T> key) {
+        if (key.isExternal()) {
+            return key.getCodec().read(context, key.getName());
+        }
+        final int slot = key.getSlot();
+        ensureSlots(slot);
+        Object value = slots[slot];
+        if (value == UNSET) {
+            //Decode the value from the context once and keep it in its slot
+            value = key.getCodec().read(context, key.getName());
+            slots[slot] = value;
+        }
+        return (T) value;
+    }
+
+    @Override
+    public <T> void put(ContextKey<T> key, T value) {
+        checkMainThread("put context values");
+        if (key.isExternal()) {
+            //Only the reference to the value goes to the context, a changed reference is a changed value
+            final Object oldReference = context.get(key.getName());
+            key.getCodec().write(context, key.getName(), value);
+            if (!equal(oldReference, context.get(key.getName())) && observers.containsKey(key.getName())) {
+                changedKeys.add(key.getName());
+                notifyObservers();
+            }
+            return;
+        }
+        final T oldValue = get(key);
+        final int slot = key.getSlot();
+        slots[slot] = value;
+        if (!dirtySlots[slot]) {
+            dirtySlots[slot] = true;
+            dirty = true;
+        }
+        if (!equal(oldValue, value) && observers.containsKey(key.getName())) {
+            changedKeys.add(key.getName());
+            notifyObservers();
+        }
+    }
+
+    private void ensureSlots(int slot) {
+        if (slot >= slots.length) {
+            final int oldLength = slots.length;
+            final int length = Math.max(slot + 1, ContextKey.getSlotCount());
+            slots = Arrays.copyOf(slots, length);
+            dirtySlots = Arrays.copyOf(dirtySlots, length);
+            Arrays.fill(slots, oldLength, length, UNSET);
+        }
+    }
+
+    private void invalidateSlot(String name) {
+        invalidateSlot(ContextKey.find(name));
+    }
+
+    private void invalidateSlot(ContextKey<?> key) {
+        if (key != null && key.getSlot() < slots.length) {
+            slots[key.getSlot()] = UNSET;
+            dirtySlots[key.getSlot()] = false;
+        }
+    }
+
+    /**
+     * Encode the values written through typed keys into the context Bundle
+     */
+    @SuppressWarnings("unchecked")
+    private void flushSlots() {
+        if (!dirty) {
+            return;
+        }
+        for (int i = 0; i < dirtySlots.length; i++) {
+            if (dirtySlots[i]) {
+                dirtySlots[i] = false;
+                final ContextKey<Object> key = (ContextKey<Object>) ContextKey.forSlot(i);
+                key.getCodec().write(context, key.getName(), slots[i]);
+            }
+        }
+        dirty = false;
+    }
+
+    @Override
+    public void addObserver(String key, ContextObserver observer) {
+        synchronized (observers) {
+            CopyOnWriteArrayList<ContextObserver> keyObservers = observers.get(key);
+            if (keyObservers == null) {
+                keyObservers = new CopyOnWriteArrayList<ContextObserver>();
+                observers.put(key, keyObservers);
+            }
+            keyObservers.addIfAbsent(observer);
+        }
+    }
+
+    @Override
+    public void removeObserver(String key, ContextObserver observer) {
+        synchronized (observers) {
+            final CopyOnWriteArrayList<ContextObserver> keyObservers = observers.get(key);
+            if (keyObservers != null) {
+                keyObservers.remove(observer);
+                if (keyObservers.isEmpty()) {
+                    observers.remove(key);
+                }
+            }
+        }
+    }
+
+    private void notifyObservers() {
+        if (changedKeys.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < changedKeys.size(); i++) {
+            dispatchChange(changedKeys.get(i));
+        }
+        changedKeys.clear();
+    }
+
+    /**
+     * The context, the slots and the pending changes aren't synchronized, writing them from another thread would
+     * race with the wizard
+     */
+    private static void checkMainThread(String operation) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("Cannot " + operation + " from a background thread. The wizard context is confined to the main thread.");
+        }
+    }
+
+    private void dispatchChange(String key) {
+        final CopyOnWriteArrayList<ContextObserver> keyObservers = observers.get(key);
+        if (keyObservers == null) {
+            return;
+        }
+        //Write the values put through typed keys, including the changed one, before observers read the Bundle
+        final Bundle context = getContext();
+        //Iterate over a snapshot so observers may remove themselves while being notified
+        for (ContextObserver observer : keyObservers) {
+            observer.onContextChanged(key, context);
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public void setCurrentStep(int[] flow, int position) {
+        currentFlow = flow;
+        currentStep = position;
+        final ArrayList<String> dropped = scopes.dropExpired(context, flow, position);
+        if (dropped != null) {
+            for (int i = 0; i < dropped.size(); i++) {
+                invalidateSlot(dropped.get(i));
+                if (observers.containsKey(dropped.get(i))) {
+                    changedKeys.add(dropped.get(i));
+                }
+            }
+            notifyObservers();
+        }
+    }
+
+    @Override
+    public void drop(Collection<String> names) {
+        flushSlots();
+        for (String name : names) {
+            if (!context.containsKey(name)) {
+                continue;
+            }
+            context.remove(name);
+            invalidateSlot(name);
+            if (observers.containsKey(name)) {
+                changedKeys.add(name);
+            }
+        }
+        notifyObservers();
+    }
+
+    /**
+     * The scopes of the saved values are saved along with them, and restored by {@link #setContext(Bundle)}
+     */
+    @Override
+    public Bundle getSavedContext() {
+        Bundle saved = scopes.exclude(getContext(), currentFlow, currentStep);
+        if (!scopes.isEmpty()) {
+            if (saved == context) {
+                saved = new Bundle(context);
+            }
+            saved.putBundle(STATE_SCOPES, scopes.save());
+        }
+        return saved;
     }
 
     @Override
     public Bundle getContext() {
+        flushSlots();
         return context;
     }
 
     @Override
     public void setContext(Bundle context) {
         this.context = context;
+        scopes.clear();
+        if (context != null && context.containsKey(STATE_SCOPES)) {
+            //Context saved by getSavedContext()
+            scopes.restore(context.getBundle(STATE_SCOPES));
+            context.remove(STATE_SCOPES);
+        }
+        Arrays.fill(slots, UNSET);
+        Arrays.fill(dirtySlots, false);
+        dirty = false;
     }
 
-    private void bindFields(WizardFragment wizardFragment, Bundle args) {
+    private void bindFields(Object step, Bundle args) {
         //Scan the step for fields annotated with @ContextVariable
         //and bind value if found in step's arguments
-        Field[] fields = wizardFragment.getClass().getDeclaredFields();
+        Field[] fields = ContextVariableFields.get(step.getClass());
         for (Field field : fields) {
-            if (field.getAnnotation(ContextVariable.class) != null && args.containsKey(field.getName())) {
-                field.setAccessible(true);
+            if (args.containsKey(field.getName())) {
                 try {
                     if (field.getType() == Date.class) {
-                        field.set(wizardFragment, new Date(args.getLong(field.getName())));
+                        field.set(step, new Date(args.getLong(field.getName())));
                     }
                     else {
-                        field.set(wizardFragment, args.get(field.getName()));
+                        field.set(step, args.get(field.getName()));
                     }
                 } catch (IllegalAccessException e) {
                     e.printStackTrace();
@@ -0,0 +1,16 @@
+package org.codepond.wizardroid.persistence;
+
+import android.os.Bundle;
+
+/**
+ * Listener notified when the value of an observed wizard context variable changes.
+ * Register it with {@link ObservableContextManager#addObserver(String, ContextObserver)}.
+ */
+public interface ContextObserver {
+    /**
+     * Called on the main thread after the value of the observed variable changed
+     * @param key the name of the variable
+     * @param context the wizard context holding the new value
+     */
+    void onContextChanged(String key, Bundle context);
+}
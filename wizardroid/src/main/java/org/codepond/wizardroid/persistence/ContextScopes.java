@@ -0,0 +1,177 @@
+package org.codepond.wizardroid.persistence;
+
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Tracks the lifetime of context variables declared with a {@link ContextVariable#scope()}. Each scoped
+ * variable is kept for a range of step positions of the flow whose step wrote it, and dropped from the context
+ * when the wizard leaves the range. While the wizard is inside a sub-flow it is at the position of the sub-flow
+ * entry in the enclosing flows, leaving the flow of a variable ends its scope.
+ * The range of a {@link ContextVariable#STEP} variable starts at the next step shown after the value was written,
+ * since steps write their variables when the wizard leaves them.
+ * Flows are identified by the positions of the sub-flow entries leading to them, the top-level flow by an empty
+ * array. The arrays are kept and must not be modified.
+ */
+final class ContextScopes {
+    /**
+     * Range of positions of a scoped variable within a flow
+     */
+    private static final class Scope {
+        //Null while the variable is a STEP variable whose reading step isn't shown yet
+        int[] flow;
+        int from;
+        int until;
+
+        Scope(int[] flow, int from, int until) {
+            this.flow = flow;
+            this.from = from;
+            this.until = until;
+        }
+    }
+
+    private final HashMap<String, Scope> scopes = new HashMap<String, Scope>();
+
+    /**
+     * Record a variable written to the context
+     * @param name the name of the variable
+     * @param scope the scope declared by the variable
+     * @param flow the flow of the step which wrote it
+     * @param position the position of the step which wrote it
+     */
+    void record(String name, int scope, int[] flow, int position) {
+        if (scope == ContextVariable.WIZARD) {
+            if (!scopes.isEmpty()) {
+                scopes.remove(name);
+            }
+        }
+        else if (scope == ContextVariable.STEP) {
+            scopes.put(name, new Scope(null, 0, 0));
+        }
+        else {
+            scopes.put(name, new Scope(flow, Integer.MIN_VALUE, scope));
+        }
+    }
+
+    /**
+     * Drop the variables whose scope doesn't include a position from the context. The scope of the
+     * {@link ContextVariable#STEP} variables written since the last call starts at the position.
+     * @param context the wizard context
+     * @param flow the flow of the step the wizard moved to
+     * @param position the position of the step the wizard moved to
+     * @return the names of the dropped variables or null if none was dropped
+     */
+    ArrayList<String> dropExpired(Bundle context, int[] flow, int position) {
+        if (scopes.isEmpty()) {
+            return null;
+        }
+        ArrayList<String> dropped = null;
+        final Iterator<Map.Entry<String, Scope>> iterator = scopes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Scope> entry = iterator.next();
+            final Scope scope = entry.getValue();
+            if (scope.flow == null) {
+                scope.flow = flow;
+                scope.from = position;
+                scope.until = position;
+            }
+            else if (!contains(scope, flow, position)) {
+                context.remove(entry.getKey());
+                iterator.remove();
+                if (dropped == null) {
+                    dropped = new ArrayList<String>(2);
+                }
+                dropped.add(entry.getKey());
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Get the context to save, without the values of scoped variables whose scope doesn't include a position.
+     * Values still in scope are saved, so they are there when the wizard is restored.
+     * @param context the wizard context
+     * @param flow the flow of the current step
+     * @param position the position of the current step
+     * @return the context itself if no value is out of scope, otherwise a copy without them
+     */
+    Bundle exclude(Bundle context, int[] flow, int position) {
+        Bundle saved = context;
+        for (Map.Entry<String, Scope> entry : scopes.entrySet()) {
+            final Scope scope = entry.getValue();
+            if (scope.flow != null && !contains(scope, flow, position) && context.containsKey(entry.getKey())) {
+                if (saved == context) {
+                    saved = new Bundle(context);
+                }
+                saved.remove(entry.getKey());
+            }
+        }
+        return saved;
+    }
+
+    boolean isEmpty() {
+        return scopes.isEmpty();
+    }
+
+    /**
+     * Save the scopes, e.g. along with the saved wizard context
+     * @return Bundle holding the range of each variable as from, until and the flow
+     */
+    Bundle save() {
+        final Bundle state = new Bundle();
+        for (Map.Entry<String, Scope> entry : scopes.entrySet()) {
+            final Scope scope = entry.getValue();
+            final int flowLength = scope.flow != null ? scope.flow.length : 0;
+            final int[] saved = new int[3 + flowLength];
+            saved[0] = scope.flow != null ? 1 : 0;
+            saved[1] = scope.from;
+            saved[2] = scope.until;
+            if (scope.flow != null) {
+                System.arraycopy(scope.flow, 0, saved, 3, flowLength);
+            }
+            state.putIntArray(entry.getKey(), saved);
+        }
+        return state;
+    }
+
+    /**
+     * Replace the scopes with the ones saved by {@link #save()}
+     * @param state Bundle holding the saved scopes
+     */
+    void restore(Bundle state) {
+        scopes.clear();
+        for (String name : state.keySet()) {
+            final int[] saved = state.getIntArray(name);
+            if (saved == null || saved.length < 3) {
+                continue;
+            }
+            final int[] flow = saved[0] != 0 ? new int[saved.length - 3] : null;
+            if (flow != null) {
+                System.arraycopy(saved, 3, flow, 0, flow.length);
+            }
+            scopes.put(name, new Scope(flow, saved[1], saved[2]));
+        }
+    }
+
+    void clear() {
+        scopes.clear();
+    }
+
+    private static boolean contains(Scope scope, int[] flow, int position) {
+        if (flow.length < scope.flow.length) {
+            return false;
+        }
+        for (int i = 0; i < scope.flow.length; i++) {
+            if (flow[i] != scope.flow[i]) {
+                return false;
+            }
+        }
+        //Inside a sub-flow the wizard is at the entry position of the sub-flow in the flow of the variable
+        final int flowPosition = flow.length == scope.flow.length ? position : flow[scope.flow.length];
+        return flowPosition >= scope.from && flowPosition <= scope.until;
+    }
+}
@@ -5,7 +5,28 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Marks a field of a step or of the wizard host as a wizard context variable, passed between steps
+ * by the field's name
+ */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.FIELD)
 public @interface ContextVariable {
+    /**
+     * Scope of a variable kept until the wizard ends
+     */
+    int WIZARD = Integer.MAX_VALUE;
+    /**
+     * Scope of a variable only passed on to the next step: the value is kept while the wizard stays on the step
+     * shown after the value was written, and dropped when the wizard leaves that step
+     */
+    int STEP = -1;
+
+    /**
+     * Lifetime of the variable's value in the wizard context: {@link #WIZARD}, the default, {@link #STEP}, or the
+     * position of the last step reading the variable, the value being dropped once the wizard moves past that step.
+     * Positions are those of the flow of the step writing the variable, the value is also dropped when the wizard
+     * leaves that flow. Values whose scope ended are left out of the saved wizard context.
+     */
+    int scope() default WIZARD;
 }
@@ -0,0 +1,111 @@
+package org.codepond.wizardroid.persistence;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of the {@link ContextVariable} fields declared by step classes. The fields of a class are
+ * looked up and made accessible once, after which binding a step costs no reflective lookups.
+ * Safe to use from any thread, see {@link org.codepond.wizardroid.Wizard#warmUp(org.codepond.wizardroid.WizardFlow)}.
+ */
+public final class ContextVariableFields {
+    private static final ConcurrentHashMap<Class<?>, Field[]> cache = new ConcurrentHashMap<Class<?>, Field[]>();
+    private static final ConcurrentHashMap<Class<?>, int[]> scopes = new ConcurrentHashMap<Class<?>, int[]>();
+    private static final ConcurrentHashMap<Class<?>, KeyTable> keyTables = new ConcurrentHashMap<Class<?>, KeyTable>();
+    private static final AtomicInteger lookups = new AtomicInteger();
+
+    /**
+     * Keys declared for the fields of a class, as of the amount of keys declared when they were looked up
+     */
+    private static final class KeyTable {
+        final ContextKey<?>[] keys;
+        final int slotCount;
+
+        KeyTable(ContextKey<?>[] keys, int slotCount) {
+            this.keys = keys;
+            this.slotCount = slotCount;
+        }
+    }
+
+    private ContextVariableFields() {
+    }
+
+    /**
+     * Get the accessible fields annotated with {@link ContextVariable} declared by a class or its superclasses.
+     * A field hidden by a field of the same name in a subclass is left out.
+     * @param type the step class
+     * @return the fields, never null
+     */
+    public static Field[] get(Class<?> type) {
+        Field[] fields = cache.get(type);
+        if (fields == null) {
+            lookups.incrementAndGet();
+            final ArrayList<Field> annotated = new ArrayList<Field>();
+            final HashSet<String> names = new HashSet<String>();
+            for (Class<?> declaring = type; declaring != null && declaring != Object.class; declaring = declaring.getSuperclass()) {
+                for (Field field : declaring.getDeclaredFields()) {
+                    if (field.getAnnotation(ContextVariable.class) != null && names.add(field.getName())) {
+                        field.setAccessible(true);
+                        annotated.add(field);
+                    }
+                }
+            }
+            fields = annotated.toArray(new Field[annotated.size()]);
+            final int[] fieldScopes = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                fieldScopes[i] = fields[i].getAnnotation(ContextVariable.class).scope();
+            }
+            //Concurrent lookups of the same class may race, either result is equivalent
+            scopes.put(type, fieldScopes);
+            cache.put(type, fields);
+        }
+        return fields;
+    }
+
+    /**
+     * Get the {@link ContextVariable#scope()} of the fields returned by {@link #get(Class)}, in the same order
+     * @param type the step class
+     */
+    public static int[] getScopes(Class<?> type) {
+        get(type);
+        return scopes.get(type);
+    }
+
+    /**
+     * Get the {@link ContextKey}s declared with the names of the fields returned by {@link #get(Class)}, in the
+     * same order. The keys are looked up once per class, and again only once more keys have been declared.
+     * @param type the step class
+     * @return the keys, null for the fields without a declared key
+     * @throws IllegalArgumentException if the type of a field differs from the type of its key
+     */
+    static ContextKey<?>[] getKeys(Class<?> type) {
+        //Read before the lookups, keys declared meanwhile cause another lookup next time
+        final int slotCount = ContextKey.getSlotCount();
+        KeyTable table = keyTables.get(type);
+        if (table == null || table.slotCount != slotCount) {
+            final Field[] fields = get(type);
+            final ContextKey<?>[] keys = new ContextKey<?>[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                keys[i] = ContextKey.find(fields[i].getName());
+                if (keys[i] != null && keys[i].getType() != fields[i].getType()) {
+                    throw new IllegalArgumentException(String.format("Context variable %s of %s is declared with type %s, its ContextKey has type %s",
+                            fields[i].getName(), type.getName(), fields[i].getType().getName(), keys[i].getType().getName()));
+                }
+            }
+            table = new KeyTable(keys, slotCount);
+            keyTables.put(type, table);
+        }
+        return table.keys;
+    }
+
+    /**
+     * Get the number of reflective field lookups done so far, one per class not found in the cache.
+     * Used to check that navigating the wizard doesn't fall back to reflection.
+     */
+    public static int getLookupCount() {
+        return lookups.get();
+    }
+}
@@ -0,0 +1,172 @@
+package org.codepond.wizardroid.persistence;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minimal streaming JSON writer used by {@link ContextJsonExporter}. Tokens are written straight to the
+ * underlying {@link Writer} as they come, no document tree is built. Exposed to
+ * {@link ContextJsonExporter.Adapter}s for writing Parcelable and custom values.
+ */
+public final class JsonStreamWriter {
+    private static final int MAX_DEPTH = 64;
+
+    private final Writer out;
+    //Whether a value was already written at each nesting level, to place the commas
+    private final boolean[] hasValue = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    JsonStreamWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    /**
+     * Write the name of the next object member
+     */
+    public JsonStreamWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonStreamWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        writeString(value);
+        return this;
+    }
+
+    public JsonStreamWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Write a number. NaN and infinite values, which JSON can't represent, are written as strings.
+     */
+    public JsonStreamWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return value(Double.toString(value));
+        }
+        separate();
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    /**
+     * Write a number with the shortest representation of the float, rather than of the float widened to a double.
+     * NaN and infinite values are written as strings.
+     */
+    public JsonStreamWriter value(float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return value(Float.toString(value));
+        }
+        separate();
+        out.write(Float.toString(value));
+        return this;
+    }
+
+    public JsonStreamWriter nullValue() throws IOException {
+        separate();
+        out.write("null");
+        return this;
+    }
+
+    private JsonStreamWriter open(char bracket) throws IOException {
+        separate();
+        if (depth == MAX_DEPTH - 1) {
+            throw new IOException("JSON nesting too deep");
+        }
+        out.write(bracket);
+        hasValue[++depth] = false;
+        return this;
+    }
+
+    private JsonStreamWriter close(char bracket) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("Nothing to close");
+        }
+        out.write(bracket);
+        depth--;
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (hasValue[depth]) {
+            out.write(',');
+        }
+        hasValue[depth] = true;
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        int last = 0;
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            final String replacement;
+            if (c == '"') {
+                replacement = "\\\"";
+            }
+            else if (c == '\\') {
+                replacement = "\\\\";
+            }
+            else if (c == '\n') {
+                replacement = "\\n";
+            }
+            else if (c == '\r') {
+                replacement = "\\r";
+            }
+            else if (c == '\t') {
+                replacement = "\\t";
+            }
+            else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                replacement = String.format("\\u%04x", (int) c);
+            }
+            else {
+                continue;
+            }
+            if (last < i) {
+                out.write(value, last, i - last);
+            }
+            out.write(replacement);
+            last = i + 1;
+        }
+        if (last < length) {
+            out.write(value, last, length - last);
+        }
+        out.write('"');
+    }
+}
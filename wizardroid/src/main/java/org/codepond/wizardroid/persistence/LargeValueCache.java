@@ -0,0 +1,194 @@
+package org.codepond.wizardroid.persistence;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.support.v4.util.LruCache;
+
+/**
+ * Bounded, size-aware LRU cache for large context values such as Bitmaps and byte arrays. Only a small string
+ * handle goes into the wizard context, so large values are neither copied into step arguments nor parcelled
+ * into the saved state. Evicted values, and values lost with the process, are reloaded through the
+ * application's {@link Loader}. Use {@link #codec(Class, HandleProvider)} to pass large values through a
+ * {@link ContextKey}:
+ * <pre>
+ * static final LargeValueCache CACHE = new LargeValueCache(LargeValueCache.getDefaultBudget(context), loader);
+ * static final ContextKey&lt;Bitmap&gt; PHOTO = ContextKey.of("photo", Bitmap.class, CACHE.codec(Bitmap.class, photoFiles));
+ * </pre>
+ * The context manager doesn't keep the values of such keys, so the cache is the only place holding them.
+ * The cache is thread safe.
+ */
+public class LargeValueCache {
+    /**
+     * Reloads values which are not in the cache, e.g. by decoding the photo a handle refers to from disk.
+     * Called on the thread reading the value.
+     */
+    public interface Loader {
+        /**
+         * @param handle the handle of the value
+         * @return the value or null if it can't be reloaded
+         */
+        Object load(String handle) throws Exception;
+    }
+
+    /**
+     * Supplies the handle of a value put through a {@link #codec(Class, HandleProvider)}, e.g. the path of the
+     * file the value was saved to, so the {@link Loader} can reload it after it was evicted or lost with the process
+     * @param <T> type of the value
+     */
+    public interface HandleProvider<T> {
+        /**
+         * @param name the name of the context variable
+         * @param value the value
+         * @return the handle of the value, equal handles must refer to equal values
+         */
+        String getHandle(String name, T value);
+    }
+
+    /**
+     * Size accounted for values of unknown size
+     */
+    private static final int DEFAULT_VALUE_SIZE = 1024;
+
+    private final LruCache<String, Object> cache;
+    private final Loader loader;
+
+    /**
+     * @param maxSize budget of the cache in bytes, see {@link #getDefaultBudget(Context)}
+     * @param loader the loader of evicted values or null if evicted values are lost
+     */
+    public LargeValueCache(int maxSize, Loader loader) {
+        this.loader = loader;
+        this.cache = new LruCache<String, Object>(maxSize) {
+            @Override
+            protected int sizeOf(String handle, Object value) {
+                return LargeValueCache.this.sizeOf(value);
+            }
+        };
+    }
+
+    /**
+     * Get a cache budget of an eighth of the memory available to the application
+     * @param context any context of the application
+     * @return the budget in bytes
+     */
+    public static int getDefaultBudget(Context context) {
+        final ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager.getMemoryClass() * 1024 * 1024 / 8;
+    }
+
+    /**
+     * Put a value in the cache. A value larger than the whole budget is not kept.
+     * @param handle the handle of the value, which the loader must be able to reload it from
+     * @param value the value
+     * @return the handle
+     */
+    public String put(String handle, Object value) {
+        cache.put(handle, value);
+        return handle;
+    }
+
+    /**
+     * Get a value, reloading it through the loader if it isn't in the cache
+     * @param handle the handle of the value
+     * @param type the type of the value
+     * @return the value or null if it isn't in the cache and can't be reloaded
+     * @throws RuntimeException if the loader fails
+     */
+    public <T> T get(String handle, Class<T> type) {
+        Object value = cache.get(handle);
+        if (value == null && loader != null) {
+            try {
+                value = loader.load(handle);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to reload large context value " + handle, e);
+            }
+            if (value != null) {
+                cache.put(handle, value);
+            }
+        }
+        return type.cast(value);
+    }
+
+    public void remove(String handle) {
+        cache.remove(handle);
+    }
+
+    /**
+     * Drop all values, e.g. when the wizard completes or the system is low on memory
+     */
+    public void evictAll() {
+        cache.evictAll();
+    }
+
+    /**
+     * Get the size of the values in the cache in bytes
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    public int maxSize() {
+        return cache.maxSize();
+    }
+
+    /**
+     * Get a codec keeping the values of a {@link ContextKey} in this cache and only their handle in the context
+     * @param type the type of the values
+     * @param handles the provider of the handles of the values
+     */
+    public <T> ContextKey.Codec<T> codec(final Class<T> type, final HandleProvider<T> handles) {
+        return new ContextKey.ExternalCodec<T>() {
+            @Override
+            public void write(Bundle bundle, String name, T value) {
+                if (value == null) {
+                    final String handle = bundle.getString(name);
+                    if (handle != null) {
+                        remove(handle);
+                    }
+                    bundle.remove(name);
+                }
+                else {
+                    bundle.putString(name, put(handles.getHandle(name, value), value));
+                }
+            }
+
+            @Override
+            public T read(Bundle bundle, String name) {
+                final String handle = bundle.getString(name);
+                return handle != null ? get(handle, type) : null;
+            }
+        };
+    }
+
+    /**
+     * Get the size of a value in bytes. Bitmaps and primitive arrays are measured, override this method
+     * to measure other types.
+     */
+    protected int sizeOf(Object value) {
+        if (value instanceof Bitmap) {
+            final Bitmap bitmap = (Bitmap) value;
+            return bitmap.getRowBytes() * bitmap.getHeight();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        if (value instanceof int[]) {
+            return ((int[]) value).length * 4;
+        }
+        if (value instanceof float[]) {
+            return ((float[]) value).length * 4;
+        }
+        if (value instanceof long[]) {
+            return ((long[]) value).length * 8;
+        }
+        if (value instanceof double[]) {
+            return ((double[]) value).length * 8;
+        }
+        if (value instanceof String) {
+            return ((String) value).length() * 2;
+        }
+        return DEFAULT_VALUE_SIZE;
+    }
+}
@@ -0,0 +1,21 @@
+package org.codepond.wizardroid.persistence;
+
+/**
+ * {@link ContextManager} which notifies observers of individual context variables
+ * when their values change.
+ */
+public interface ObservableContextManager extends ContextManager {
+    /**
+     * Start observing a context variable. Observers are only notified for values which actually changed.
+     * @param key the name of the variable
+     * @param observer the observer to notify on the main thread
+     */
+    void addObserver(String key, ContextObserver observer);
+
+    /**
+     * Stop observing a context variable
+     * @param key the name of the variable
+     * @param observer the observer previously added for the variable
+     */
+    void removeObserver(String key, ContextObserver observer);
+}
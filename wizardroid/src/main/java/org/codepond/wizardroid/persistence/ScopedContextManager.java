@@ -0,0 +1,32 @@
+package org.codepond.wizardroid.persistence;
+
+import android.os.Bundle;
+
+import java.util.Collection;
+
+/**
+ * Optional extension of {@link ContextManager} honouring the {@link ContextVariable#scope()} of variables.
+ * The wizard reports every step change, letting the manager drop the values whose scope ended.
+ */
+public interface ScopedContextManager extends ContextManager {
+    /**
+     * Called by the wizard whenever the current step changes. Positions are only meaningful within a flow, the
+     * flow is identified by the positions of the sub-flow entries leading to it.
+     * @param flow the positions of the sub-flow entries from the top-level flow to the flow of the step, an
+     * empty array for the top-level flow. The array is kept and must not be modified afterwards.
+     * @param position the position of the new current step within its flow
+     */
+    void setCurrentStep(int[] flow, int position);
+
+    /**
+     * Get the wizard context to save in the instance state, without the values of scoped variables whose
+     * scope ended
+     */
+    Bundle getSavedContext();
+
+    /**
+     * Drop the values of the specified variables, e.g. when the wizard leaves a sub-flow with a scoped context
+     * @param names the names of the variables
+     */
+    void drop(Collection<String> names);
+}
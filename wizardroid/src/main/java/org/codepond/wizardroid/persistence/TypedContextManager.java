@@ -0,0 +1,22 @@
+package org.codepond.wizardroid.persistence;
+
+/**
+ * {@link ContextManager} providing typed access to context variables through {@link ContextKey}s.
+ * Values are held in slots indexed by the key and only encoded into the context Bundle
+ * when {@link #getContext()} is called.
+ */
+public interface TypedContextManager extends ContextManager {
+    /**
+     * Get the value of a context variable
+     * @param key the key of the variable
+     * @return the value or null if the variable has no value
+     */
+    <T> T get(ContextKey<T> key);
+
+    /**
+     * Set the value of a context variable
+     * @param key the key of the variable
+     * @param value the new value or null to remove the value
+     */
+    <T> void put(ContextKey<T> key, T value);
+}
@@ -0,0 +1,30 @@
+package org.codepond.wizardroid.submission;
+
+/**
+ * A completed wizard context waiting in the {@link SubmissionQueue}
+ */
+public final class Submission {
+    private final long id;
+    private final String payload;
+
+    Submission(long id, String payload) {
+        this.id = id;
+        this.payload = payload;
+    }
+
+    /**
+     * Get the id of the submission. Ids increase in the order the submissions were queued and are kept
+     * when the submission is retried, so transports can use them to drop duplicates on the receiving side.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Get the wizard context as a JSON object, as written by
+     * {@link org.codepond.wizardroid.persistence.ContextJsonExporter}
+     */
+    public String getPayload() {
+        return payload;
+    }
+}
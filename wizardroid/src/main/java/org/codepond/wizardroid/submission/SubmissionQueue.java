@@ -0,0 +1,441 @@
+package org.codepond.wizardroid.submission;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import org.codepond.wizardroid.persistence.ContextJsonExporter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local queue of completed wizard contexts. Contexts are written to a directory as JSON
+ * and sent through a {@link SubmissionTransport} in batches, so a busy offline device doesn't wake the
+ * radio for every completed wizard. Failed batches are retried with exponential backoff. Queued submissions
+ * survive process death and are picked up by the next queue created on the same directory. Submission ids keep
+ * increasing across restarts, also once the queue was emptied.
+ * <pre>
+ * queue = new SubmissionQueue.Builder(context, "surveys", transport)
+ *         .setBatchSize(20)
+ *         .setFlushDelay(15, TimeUnit.MINUTES)
+ *         .create();
+ *
+ * public void onWizardComplete() {
+ *     queue.enqueue(wizard.getContext());
+ * }
+ * </pre>
+ * All disk and transport work runs on a single worker thread.
+ */
+public class SubmissionQueue {
+    private static final String FILE_SUFFIX = ".json";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String COUNTER_FILE = "next.id";
+    //Ids reserved at once in the counter file, so the file isn't written for every submission
+    private static final int ID_BLOCK = 64;
+
+    private final File directory;
+    private final SubmissionTransport transport;
+    private final ContextJsonExporter exporter;
+    private final int batchSize;
+    private final long flushDelayMillis;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final ScheduledExecutorService executor;
+    private final boolean ownsExecutor;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    //Worker thread state
+    private final ArrayList<Long> pending = new ArrayList<Long>();
+    private boolean loaded;
+    private long nextId;
+    //First id not covered by the counter file
+    private long reservedId;
+    private int failedAttempts;
+    private ScheduledFuture<?> scheduledFlush;
+
+    private SubmissionQueue(Builder builder) {
+        directory = builder.directory;
+        transport = builder.transport;
+        exporter = builder.exporter != null ? builder.exporter : new ContextJsonExporter();
+        batchSize = builder.batchSize;
+        flushDelayMillis = builder.flushDelayMillis;
+        initialBackoffMillis = builder.initialBackoffMillis;
+        maxBackoffMillis = builder.maxBackoffMillis;
+        ownsExecutor = builder.executor == null;
+        executor = ownsExecutor ? createExecutor() : builder.executor;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ensureLoaded();
+                } catch (IOException ignored) {
+                    //Retried by the next enqueue, which reports the failure
+                }
+            }
+        });
+    }
+
+    /**
+     * Add a completed wizard context to the queue. The context is copied on the calling thread and written
+     * to disk on the worker thread. A batch is sent as soon as enough submissions are queued.
+     * @param context the wizard context, usually {@link org.codepond.wizardroid.Wizard#getContext()}
+     * @return the id of the stored submission. If the context couldn't be written to disk, getting the id throws
+     * an {@link java.util.concurrent.ExecutionException} caused by the IOException and the context isn't queued.
+     */
+    public Future<Long> enqueue(Bundle context) {
+        final Bundle copy = new Bundle(context);
+        pendingCount.incrementAndGet();
+        return executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                final long id;
+                try {
+                    ensureLoaded();
+                    id = store(copy);
+                } catch (IOException e) {
+                    pendingCount.decrementAndGet();
+                    throw e;
+                }
+                //While backing off, the retry sends the new submission along
+                if (failedAttempts > 0) {
+                    return id;
+                }
+                if (pending.size() >= batchSize) {
+                    send(false);
+                }
+                if (!pending.isEmpty() && flushDelayMillis > 0 && scheduledFlush == null) {
+                    scheduleFlush(flushDelayMillis);
+                }
+                return id;
+            }
+        });
+    }
+
+    /**
+     * Send all queued submissions now, including a last partial batch, e.g. when the device gets back online.
+     * Cancels the backoff of a failed batch.
+     */
+    public void flush() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ensureLoaded();
+                } catch (IOException ignored) {
+                    //Nothing can be queued until the directory is available
+                    return;
+                }
+                cancelScheduledFlush();
+                send(true);
+            }
+        });
+    }
+
+    /**
+     * Get the number of submissions waiting to be sent
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Stop the worker thread. Queued submissions stay on disk.
+     * An executor passed to {@link Builder#setExecutor(ScheduledExecutorService)} isn't shut down.
+     */
+    public void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+        else {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    cancelScheduledFlush();
+                }
+            });
+        }
+    }
+
+    private void ensureLoaded() throws IOException {
+        if (loaded) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create wizard submission directory " + directory);
+        }
+        loaded = true;
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    //Left over by a write interrupted by process death
+                    file.delete();
+                }
+                else if (name.endsWith(FILE_SUFFIX)) {
+                    try {
+                        pending.add(Long.parseLong(name.substring(0, name.length() - FILE_SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        Collections.sort(pending);
+        nextId = Math.max(readCounter(), pending.isEmpty() ? 1 : pending.get(pending.size() - 1) + 1);
+        reservedId = nextId;
+        pendingCount.addAndGet(pending.size());
+        if (!pending.isEmpty() && flushDelayMillis > 0) {
+            scheduleFlush(flushDelayMillis);
+        }
+    }
+
+    private long store(Bundle context) throws IOException {
+        if (nextId >= reservedId) {
+            writeCounter(nextId + ID_BLOCK);
+            reservedId = nextId + ID_BLOCK;
+        }
+        final long id = nextId++;
+        final File temp = new File(directory, id + TEMP_SUFFIX);
+        final OutputStream out = new FileOutputStream(temp);
+        try {
+            exporter.export(context, out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(getFile(id))) {
+            temp.delete();
+            throw new IOException("Failed to rename " + temp);
+        }
+        pending.add(id);
+        return id;
+    }
+
+    /**
+     * Read the first id not used by a previous queue on the directory
+     * @return the id or 0 if the counter file is missing or unreadable
+     */
+    private long readCounter() {
+        final File file = new File(directory, COUNTER_FILE);
+        if (!file.exists()) {
+            return 0;
+        }
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                return Long.parseLong(reader.readLine().trim());
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return 0;
+        } catch (RuntimeException e) {
+            //Empty or corrupt file, fall back to the queued submissions
+            return 0;
+        }
+    }
+
+    private void writeCounter(long id) throws IOException {
+        final File temp = new File(directory, COUNTER_FILE + TEMP_SUFFIX);
+        final OutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(String.valueOf(id).getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(new File(directory, COUNTER_FILE))) {
+            temp.delete();
+            throw new IOException("Failed to rename " + temp);
+        }
+    }
+
+    /**
+     * Send the queued submissions in batches until the queue is empty or a batch fails
+     * @param all true to send a last partial batch as well
+     */
+    private void send(boolean all) {
+        while (!pending.isEmpty() && (all || pending.size() >= batchSize)) {
+            final int count = Math.min(batchSize, pending.size());
+            final ArrayList<Submission> batch = new ArrayList<Submission>(count);
+            for (int i = 0; i < count; i++) {
+                final long id = pending.get(i);
+                try {
+                    batch.add(new Submission(id, read(getFile(id))));
+                } catch (IOException e) {
+                    //The submission can't be read back, there is no point in retrying it
+                }
+            }
+            try {
+                transport.send(batch);
+            } catch (IOException e) {
+                failedAttempts++;
+                scheduleFlush(getBackoffMillis());
+                return;
+            }
+            failedAttempts = 0;
+            for (int i = 0; i < count; i++) {
+                getFile(pending.get(i)).delete();
+            }
+            pending.subList(0, count).clear();
+            pendingCount.addAndGet(-count);
+        }
+        if (pending.isEmpty()) {
+            cancelScheduledFlush();
+        }
+    }
+
+    private long getBackoffMillis() {
+        final int shift = Math.min(failedAttempts - 1, 30);
+        final long delay = initialBackoffMillis << shift;
+        return delay > 0 && delay < maxBackoffMillis ? delay : maxBackoffMillis;
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        cancelScheduledFlush();
+        scheduledFlush = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                scheduledFlush = null;
+                send(true);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    private File getFile(long id) {
+        return new File(directory, id + FILE_SUFFIX);
+    }
+
+    private static String read(File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ScheduledExecutorService createExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "WizardSubmissionQueue");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Builder for {@link SubmissionQueue}
+     */
+    public static class Builder {
+        private final File directory;
+        private final SubmissionTransport transport;
+        private ContextJsonExporter exporter;
+        private int batchSize = 20;
+        private long flushDelayMillis;
+        private long initialBackoffMillis = TimeUnit.SECONDS.toMillis(30);
+        private long maxBackoffMillis = TimeUnit.MINUTES.toMillis(30);
+        private ScheduledExecutorService executor;
+
+        /**
+         * Construct a queue builder storing submissions in the application's private files
+         * @param context the application context
+         * @param name name of the queue, distinct queues must use distinct names
+         * @param transport the transport delivering the batches
+         */
+        public Builder(Context context, String name, SubmissionTransport transport) {
+            this(new File(context.getFilesDir(), "wizardroid/submissions/" + name), transport);
+        }
+
+        /**
+         * Construct a queue builder
+         * @param directory directory to store the queued submissions in, used by this queue only
+         * @param transport the transport delivering the batches
+         */
+        public Builder(File directory, SubmissionTransport transport) {
+            this.directory = directory;
+            this.transport = transport;
+        }
+
+        /**
+         * Set the number of submissions sent together. A batch is sent as soon as it is full. Defaults to 20.
+         */
+        public Builder setBatchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("Batch size must be at least 1");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Send a partial batch after the first submission waited this long. Disabled by default,
+         * in which case partial batches are only sent by {@link SubmissionQueue#flush()}.
+         */
+        public Builder setFlushDelay(long delay, TimeUnit unit) {
+            this.flushDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * Set the delay before retrying a failed batch. The delay doubles after each consecutive failure
+         * up to the maximum. Defaults to 30 seconds and 30 minutes.
+         */
+        public Builder setBackoff(long initialDelay, long maxDelay, TimeUnit unit) {
+            this.initialBackoffMillis = Math.max(1, unit.toMillis(initialDelay));
+            this.maxBackoffMillis = Math.max(initialBackoffMillis, unit.toMillis(maxDelay));
+            return this;
+        }
+
+        /**
+         * Set the exporter writing the contexts, e.g. to register adapters for Parcelable context variables
+         */
+        public Builder setExporter(ContextJsonExporter exporter) {
+            this.exporter = exporter;
+            return this;
+        }
+
+        /**
+         * Run the queue's work on the given executor instead of a dedicated thread.
+         * The executor must run one task at a time.
+         */
+        public Builder setExecutor(ScheduledExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public SubmissionQueue create() {
+            return new SubmissionQueue(this);
+        }
+    }
+}
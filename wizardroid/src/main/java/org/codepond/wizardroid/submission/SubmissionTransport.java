@@ -0,0 +1,17 @@
+package org.codepond.wizardroid.submission;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Delivers batches of queued submissions, e.g. to a server. Called on the queue's worker thread,
+ * one batch at a time.
+ */
+public interface SubmissionTransport {
+    /**
+     * Deliver a batch of submissions. The batch is removed from the queue once this method returns.
+     * @param batch the submissions in the order they were queued
+     * @throws IOException if the batch could not be delivered, in which case the whole batch is retried later
+     */
+    void send(List<Submission> batch) throws IOException;
+}
@@ -0,0 +1,54 @@
+package org.codepond.wizardroid.validation;
+
+import org.codepond.wizardroid.WizardStep;
+
+/**
+ * Failure reported by a {@link WizardValidator}
+ */
+public final class ValidationFailure {
+    private final Class<? extends WizardStep> stepClass;
+    private final String message;
+
+    /**
+     * @param stepClass the step the user needs to revisit to fix the failure or null to use
+     *                  the step the validator was registered for
+     * @param message description of the failure
+     */
+    public ValidationFailure(Class<? extends WizardStep> stepClass, String message) {
+        this.stepClass = stepClass;
+        this.message = message;
+    }
+
+    /**
+     * @param message description of the failure
+     */
+    public ValidationFailure(String message) {
+        this(null, message);
+    }
+
+    /**
+     * Get the step the user needs to revisit to fix the failure
+     */
+    public Class<? extends WizardStep> getStepClass() {
+        return stepClass;
+    }
+
+    /**
+     * Get the description of the failure
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Create a failure for a different step, keeping the message
+     */
+    public ValidationFailure withStep(Class<? extends WizardStep> stepClass) {
+        return new ValidationFailure(stepClass, message);
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationFailure[" + (stepClass != null ? stepClass.getSimpleName() : "wizard") + ": " + message + "]";
+    }
+}
@@ -0,0 +1,21 @@
+package org.codepond.wizardroid.validation;
+
+import android.os.Bundle;
+
+/**
+ * Validator run when the wizard is about to complete. Register validators with
+ * {@link org.codepond.wizardroid.Wizard#addValidator(WizardValidator)} for checks across several steps or with
+ * {@link org.codepond.wizardroid.Wizard#addValidator(Class, WizardValidator)} for checks of a single step.
+ * All validators run in parallel on worker threads, so implementations may do blocking work such as
+ * database lookups, but must not touch the UI.
+ */
+public interface WizardValidator {
+    /**
+     * Validate the wizard context. Called on a worker thread.
+     * @param context snapshot of the wizard context owned by this validator. The values in it are shared with
+     *                the other validators and must not be modified.
+     * @return null if the context is valid, otherwise the failure
+     * @throws Exception any exception thrown is reported as a failure
+     */
+    ValidationFailure validate(Bundle context) throws Exception;
+}
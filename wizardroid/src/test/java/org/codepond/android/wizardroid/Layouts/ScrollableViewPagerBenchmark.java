@@ -0,0 +1,108 @@
+package org.codepond.android.wizardroid.Layouts;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import org.codepond.wizardroid.layouts.ScrollableViewPager;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of {@link ScrollableViewPager} touch handling time and allocations per event.
+ * Replays the same horizontal and vertical drag gestures many times, reusing the MotionEvent
+ * instances, and reports the average time spent in dispatchTouchEvent. The time is only reported, while
+ * the bytes allocated by the measured gestures must stay below one byte per event, which leaves room for
+ * one-off allocations but not for a single object allocated per event.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ScrollableViewPagerBenchmark {
+    private static final int WARMUP_GESTURES = 1000;
+    private static final int MEASURED_GESTURES = 10000;
+    private static final int MOVES_PER_GESTURE = 20;
+
+    private ScrollableViewPager pager;
+    private MotionEvent down;
+    private MotionEvent move;
+    private MotionEvent up;
+    private long allocatedBytes;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).create().get();
+        pager = new ScrollableViewPager(activity);
+        activity.setContentView(pager);
+
+        long now = SystemClock.uptimeMillis();
+        down = MotionEvent.obtain(now, now, MotionEvent.ACTION_DOWN, 0, 0, 0);
+        move = MotionEvent.obtain(now, now, MotionEvent.ACTION_MOVE, 0, 0, 0);
+        up = MotionEvent.obtain(now, now, MotionEvent.ACTION_UP, 0, 0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        down.recycle();
+        move.recycle();
+        up.recycle();
+    }
+
+    @Test
+    public void benchmarkHorizontalDrag() {
+        replay(WARMUP_GESTURES, 10f, 0f);
+        long elapsed = replay(MEASURED_GESTURES, 10f, 0f);
+        report("horizontal drag", elapsed, allocatedBytes);
+    }
+
+    @Test
+    public void benchmarkVerticalDrag() {
+        replay(WARMUP_GESTURES, 0f, 10f);
+        long elapsed = replay(MEASURED_GESTURES, 0f, 10f);
+        report("vertical drag", elapsed, allocatedBytes);
+    }
+
+    /**
+     * Replay drag gestures, keeping the bytes allocated by the calling thread in {@link #allocatedBytes}
+     * @return the time spent replaying them in nanoseconds
+     */
+    private long replay(int gestures, float stepX, float stepY) {
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < gestures; i++) {
+            down.setLocation(200f, 200f);
+            pager.dispatchTouchEvent(down);
+            for (int j = 1; j <= MOVES_PER_GESTURE; j++) {
+                move.setLocation(200f - stepX * j, 200f - stepY * j);
+                pager.dispatchTouchEvent(move);
+            }
+            up.setLocation(200f - stepX * MOVES_PER_GESTURE, 200f - stepY * MOVES_PER_GESTURE);
+            pager.dispatchTouchEvent(up);
+        }
+        long elapsed = System.nanoTime() - start;
+        allocatedBytes = allocatedBytes() - startBytes;
+        return elapsed;
+    }
+
+    private void report(String name, long elapsedNanos, long allocatedBytes) {
+        long events = (long) MEASURED_GESTURES * (MOVES_PER_GESTURE + 2);
+        System.out.println(String.format("ScrollableViewPager %s: %d events, %d ns/event, %d bytes allocated",
+                name, events, elapsedNanos / events, allocatedBytes));
+        assertTrue(String.format("Touch handling of %s allocated %d bytes for %d events, expected no allocation per event",
+                name, allocatedBytes, events), allocatedBytes < events);
+    }
+
+    private static long allocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Allocation counting requires a HotSpot compatible JVM", bean instanceof com.sun.management.ThreadMXBean);
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,137 @@
+package org.codepond.android.wizardroid;
+
+import org.codepond.wizardroid.PagedWizardFlow;
+import org.codepond.wizardroid.StepProvider;
+import org.codepond.wizardroid.WizardStep;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PagedWizardFlowTest {
+    private static final int STEPS_COUNT = 10;
+
+    private CountingProvider provider;
+    private PagedWizardFlow flow;
+
+    @Before
+    public void setUp() {
+        provider = new CountingProvider(STEPS_COUNT, 3, 7);
+        flow = new PagedWizardFlow.Builder(provider)
+                .setPageSize(2)
+                .setMaxPages(2)
+                .create();
+    }
+
+    @Test
+    public void testGetStepClass_StepInLoadedPage_DoesNotLoadPage() {
+        flow.getStepClass(0);
+        flow.getStepClass(1);
+        flow.isStepRequired(0);
+
+        assertEquals(1, provider.offsets.size());
+        assertEquals(0, (int) provider.offsets.get(0));
+    }
+
+    @Test
+    public void testGetStepClass_WindowFull_EvictsLeastRecentlyUsedPage() {
+        flow.getStepClass(0);
+        flow.getStepClass(2);
+        flow.getStepClass(0);
+        flow.getStepClass(4);
+        assertEquals(3, provider.offsets.size());
+
+        //Page 0 was used after page 2, so page 2 was replaced
+        flow.getStepClass(1);
+        assertEquals(3, provider.offsets.size());
+        flow.getStepClass(3);
+        assertEquals(4, provider.offsets.size());
+        assertEquals(2, (int) provider.offsets.get(3));
+    }
+
+    @Test
+    public void testGetStepClass_LastPage_LoadsRemainingSteps() {
+        final PagedWizardFlow oddFlow = new PagedWizardFlow.Builder(new CountingProvider(5))
+                .setPageSize(2)
+                .create();
+
+        assertEquals(TestStep.class, oddFlow.getStepClass(4));
+    }
+
+    @Test
+    public void testGetSteps_RequiredStepIncomplete_CutsOffAtRequiredStep() {
+        assertEquals(4, flow.getSteps().size());
+
+        flow.setStepCompleted(3, true);
+        assertEquals(8, flow.getSteps().size());
+
+        flow.setStepCompleted(7, true);
+        assertEquals(STEPS_COUNT, flow.getSteps().size());
+
+        flow.setStepCompleted(3, false);
+        assertEquals(4, flow.getSteps().size());
+    }
+
+    @Test
+    public void testSetStepCompleted_StepAfterCutOff_DoesNotLoadPages() {
+        flow.getSteps();
+        final int loads = provider.offsets.size();
+
+        flow.setStepCompleted(9, true);
+        flow.setStepCompleted(9, false);
+        flow.setStepCompleted(8, true);
+
+        assertEquals(loads, provider.offsets.size());
+        assertEquals(4, flow.getSteps().size());
+    }
+
+    @Test
+    public void testSetStepCompleted_CutOffStepCompleted_SkipsCompletedSteps() {
+        for (int i = 4; i < STEPS_COUNT; i++) {
+            flow.setStepCompleted(i, true);
+        }
+        assertEquals(4, flow.getSteps().size());
+        provider.offsets.clear();
+
+        flow.setStepCompleted(3, true);
+
+        //Pages holding only completed steps are not loaded to find the next cut off step
+        assertTrue(provider.offsets.isEmpty());
+        assertEquals(STEPS_COUNT, flow.getSteps().size());
+    }
+
+    /**
+     * Provider of {@link TestStep}s which records the offset of every page it loads
+     */
+    private static class CountingProvider implements StepProvider {
+        final List<Integer> offsets = new ArrayList<Integer>();
+        private final int stepsCount;
+        private final int[] requiredSteps;
+
+        CountingProvider(int stepsCount, int... requiredSteps) {
+            this.stepsCount = stepsCount;
+            this.requiredSteps = requiredSteps;
+        }
+
+        @Override
+        public int getStepsCount() {
+            return stepsCount;
+        }
+
+        @Override
+        public void loadSteps(int offset, int count, Class<? extends WizardStep>[] stepClasses, boolean[] required) {
+            offsets.add(offset);
+            for (int i = 0; i < count; i++) {
+                stepClasses[i] = TestStep.class;
+                required[i] = false;
+                for (int step : requiredSteps) {
+                    if (step == offset + i) required[i] = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.codepond.android.wizardroid.Performance;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.support.v4.app.FragmentActivity;
+
+import org.codepond.wizardroid.Wizard;
+import org.codepond.wizardroid.WizardFlow;
+import org.codepond.wizardroid.WizardStep;
+import org.codepond.wizardroid.persistence.ContextManagerImpl;
+import org.codepond.wizardroid.persistence.ContextVariable;
+import org.codepond.wizardroid.persistence.ContextVariableFields;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Date;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Regression suite for the cost of navigating the wizard. Drives scripted Next/Back sessions through
+ * {@link Wizard} and {@link ContextManagerImpl} and checks the allocated bytes, reflective field lookups and
+ * step fragment transactions per navigation against the baselines checked in at
+ * src/test/resources/navigation-baselines.properties.
+ * Allocated bytes must stay within {@link #BYTES_TOLERANCE} (10%, at least {@link #BYTES_SLACK} bytes) of their
+ * measured baseline in both directions, so an improvement also asks for the baseline to be re-recorded and the
+ * baselines stay measured values. Counts must match their baseline exactly.
+ * Record the baselines by running the suite with -Dwizardroid.recordBaselines=true, e.g.
+ * gradle check -Dwizardroid.recordBaselines=true, and commit the updated file.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NavigationRegressionTest {
+    private static final String BASELINES_RESOURCE = "/navigation-baselines.properties";
+    private static final String BASELINES_FILE = "src/test/resources/navigation-baselines.properties";
+    private static final double BYTES_TOLERANCE = 0.1;
+    private static final long BYTES_SLACK = 64;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 50;
+
+    private static int transactions;
+
+    private Properties baselines;
+    private boolean record;
+    private FragmentActivity activity;
+
+    @Before
+    public void setUp() throws IOException {
+        baselines = new Properties();
+        final InputStream in = getClass().getResourceAsStream(BASELINES_RESOURCE);
+        assertNotNull("Missing " + BASELINES_FILE, in);
+        try {
+            baselines.load(in);
+        } finally {
+            in.close();
+        }
+        record = Boolean.getBoolean("wizardroid.recordBaselines");
+        activity = Robolectric.buildActivity(FragmentActivity.class).create().start().resume().get();
+        transactions = 0;
+    }
+
+    @Test
+    public void testWizardNavigation() throws IOException {
+        final ContextManagerImpl contextManager = new ContextManagerImpl();
+        contextManager.setContext(new Bundle());
+        final Wizard wizard = new Wizard(new WizardFlow.Builder()
+                .addStep(StepA.class)
+                .addStep(StepB.class)
+                .addStep(StepC.class)
+                .addStep(StepD.class)
+                .create(), contextManager, new Callbacks(), activity, activity.getSupportFragmentManager());
+        wizard.setCurrentStep(0);
+        final int steps = wizard.getFlow().getStepsCount() - 1;
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            navigate(wizard, steps);
+        }
+
+        final int lookups = ContextVariableFields.getLookupCount();
+        final int transactionsBefore = transactions;
+        final long bytes = allocatedBytes();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            navigate(wizard, steps);
+        }
+        final long allocated = allocatedBytes() - bytes;
+        final int navigations = MEASURED_ROUNDS * steps * 2;
+
+        checkBytes("wizard.bytesPerNavigation", allocated / navigations);
+        checkCount("wizard.reflectiveLookupsPerNavigation", perOperation(ContextVariableFields.getLookupCount() - lookups, navigations));
+        checkCount("wizard.fragmentTransactionsPerNavigation", perOperation(transactions - transactionsBefore, navigations));
+        saveIfRecording();
+    }
+
+    @Test
+    public void testContextPersistAndLoad() throws IOException {
+        final ContextManagerImpl contextManager = new ContextManagerImpl();
+        contextManager.setContext(new Bundle());
+        final StepA source = new StepA();
+        final StepA destination = new StepA();
+
+        for (int i = 0; i < WARMUP_ROUNDS * 100; i++) {
+            contextManager.persistStepContext(source);
+            contextManager.loadStepContext(destination);
+        }
+
+        final int cycles = MEASURED_ROUNDS * 100;
+        final int lookups = ContextVariableFields.getLookupCount();
+        final long bytes = allocatedBytes();
+        for (int i = 0; i < cycles; i++) {
+            contextManager.persistStepContext(source);
+            contextManager.loadStepContext(destination);
+        }
+        final long allocated = allocatedBytes() - bytes;
+
+        checkBytes("context.bytesPerCycle", allocated / cycles);
+        checkCount("context.reflectiveLookupsPerCycle", perOperation(ContextVariableFields.getLookupCount() - lookups, cycles));
+        saveIfRecording();
+    }
+
+    /**
+     * Walk forward to the last step but one and back to the first
+     */
+    private static void navigate(Wizard wizard, int steps) {
+        for (int i = 0; i < steps; i++) {
+            wizard.goNext();
+        }
+        for (int i = 0; i < steps; i++) {
+            wizard.goBack();
+        }
+    }
+
+    /**
+     * Count per operation, rounded up so a single extra occurrence fails a zero baseline
+     */
+    private static long perOperation(long count, int operations) {
+        return (count + operations - 1) / operations;
+    }
+
+    private void checkBytes(String name, long measured) {
+        final Long baseline = getBaseline(name, measured);
+        if (baseline == null) {
+            return;
+        }
+        final long slack = Math.max(BYTES_SLACK, (long) (baseline * BYTES_TOLERANCE));
+        assertTrue(String.format("%s regressed: measured %d, baseline %d. Re-record the baselines if the change is intended.",
+                name, measured, baseline), measured <= baseline + slack);
+        assertTrue(String.format("%s improved: measured %d, baseline %d. Re-record the baselines to keep the improvement.",
+                name, measured, baseline), measured >= baseline - slack);
+    }
+
+    private void checkCount(String name, long measured) {
+        final Long baseline = getBaseline(name, measured);
+        if (baseline != null) {
+            assertEquals(String.format("%s changed. Re-record the baselines if the change is intended.", name),
+                    (long) baseline, measured);
+        }
+    }
+
+    /**
+     * Get the baseline of a metric, or record the measured value and return null when recording
+     */
+    private Long getBaseline(String name, long measured) {
+        if (record) {
+            baselines.setProperty(name, Long.toString(measured));
+            return null;
+        }
+        final String baseline = baselines.getProperty(name);
+        assertNotNull(String.format("No baseline for %s, measured %d. Record the baselines with -Dwizardroid.recordBaselines=true.",
+                name, measured), baseline);
+        return Long.parseLong(baseline);
+    }
+
+    private void saveIfRecording() throws IOException {
+        if (!record) {
+            return;
+        }
+        final OutputStream out = new FileOutputStream(new File(BASELINES_FILE));
+        try {
+            baselines.store(out, "Navigation cost baselines, recorded by NavigationRegressionTest");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long allocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Allocation counting requires a HotSpot compatible JVM", bean instanceof com.sun.management.ThreadMXBean);
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static class Callbacks implements Wizard.WizardCallbacks {
+        @Override
+        public void onWizardComplete() {
+        }
+
+        @Override
+        public void onStepChanged() {
+        }
+    }
+
+    /**
+     * Step counting the fragment transactions which attach it
+     */
+    public static class CountingStep extends WizardStep {
+        @ContextVariable
+        private String name = "WizarDroid";
+        @ContextVariable
+        private Date timestamp = new Date(0);
+
+        @Override
+        public void onAttach(Activity activity) {
+            super.onAttach(activity);
+            transactions++;
+        }
+    }
+
+    public static class StepA extends CountingStep {
+        @ContextVariable
+        private String firstname = "Wizar";
+    }
+
+    public static class StepB extends CountingStep {
+        @ContextVariable
+        private String lastname = "Droid";
+    }
+
+    public static class StepC extends CountingStep {
+        @ContextVariable
+        private Date birthday = new Date(0);
+    }
+
+    public static class StepD extends CountingStep {
+    }
+}
@@ -0,0 +1,108 @@
+package org.codepond.android.wizardroid.Persistence;
+
+import android.os.Bundle;
+
+import org.codepond.wizardroid.persistence.ContextJsonExporter;
+import org.codepond.wizardroid.persistence.JsonStreamWriter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class ContextJsonExporterTest {
+
+    @Test
+    public void testExport_SpecialCharacters_Escaped() throws IOException {
+        final Bundle context = new Bundle();
+        context.putString("say \"hi\"", "a\"b\\c\nd\re\tf/");
+
+        assertEquals("{\"say \\\"hi\\\"\":\"a\\\"b\\\\c\\nd\\re\\tf/\"}", export(context));
+    }
+
+    @Test
+    public void testExport_ControlAndSeparatorCharacters_UnicodeEscaped() throws IOException {
+        final Bundle context = new Bundle();
+        context.putString("s", "\u0000\u001f\u2028\u2029\u00e9");
+
+        assertEquals("{\"s\":\"\\u0000\\u001f\\u2028\\u2029\u00e9\"}", export(context));
+    }
+
+    @Test
+    public void testExport_NestedValues_SeparatedByCommas() throws IOException {
+        final Bundle inner = new Bundle();
+        inner.putInt("x", 1);
+        final LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("a", true);
+        map.put("b", new int[] {1, 2});
+        map.put("c", new ArrayList<String>());
+        final ArrayList<Object> list = new ArrayList<Object>();
+        list.add(1);
+        list.add("two");
+        list.add(null);
+        list.add(map);
+        list.add(inner);
+        final Bundle context = new Bundle();
+        context.putSerializable("list", list);
+
+        assertEquals("{\"list\":[1,\"two\",null,{\"a\":true,\"b\":[1,2],\"c\":[]},{\"x\":1}]}", export(context));
+    }
+
+    @Test
+    public void testExport_EmptyContext_EmptyObject() throws IOException {
+        assertEquals("{}", export(new Bundle()));
+    }
+
+    @Test
+    public void testExport_Floats_WrittenWithoutWidening() throws IOException {
+        final Bundle context = new Bundle();
+        context.putFloatArray("f", new float[] {0.1f, 2.5f, Float.NaN});
+
+        assertEquals("{\"f\":[0.1,2.5,\"NaN\"]}", export(context));
+
+        final Bundle single = new Bundle();
+        single.putFloat("f", 0.1f);
+        assertEquals("{\"f\":0.1}", export(single));
+    }
+
+    @Test
+    public void testExport_Adapter_WritesRegisteredType() throws IOException {
+        final Bundle context = new Bundle();
+        context.putSerializable("id", new UUID(0, 1));
+
+        final String json = export(context, new ContextJsonExporter()
+                .registerAdapter(UUID.class, new ContextJsonExporter.Adapter<UUID>() {
+                    @Override
+                    public void write(UUID value, JsonStreamWriter writer) throws IOException {
+                        writer.beginObject().name("low").value(value.getLeastSignificantBits()).endObject();
+                    }
+                }));
+
+        assertEquals("{\"id\":{\"low\":1}}", json);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testExport_UnsupportedType_ThrowsRuntimeException() throws IOException {
+        final Bundle context = new Bundle();
+        context.putSerializable("id", new UUID(0, 1));
+
+        export(context);
+    }
+
+    private static String export(Bundle context) throws IOException {
+        return export(context, new ContextJsonExporter());
+    }
+
+    private static String export(Bundle context, ContextJsonExporter exporter) throws IOException {
+        final StringWriter out = new StringWriter();
+        exporter.export(context, out);
+        return out.toString();
+    }
+}
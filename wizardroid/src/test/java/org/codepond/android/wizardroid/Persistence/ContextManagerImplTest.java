@@ -1,16 +1,21 @@
 package org.codepond.android.wizardroid.Persistence;
 
 import android.os.Bundle;
-import org.codepond.wizardroid.TestStep;
+import org.codepond.android.wizardroid.TestStep;
+import org.codepond.wizardroid.persistence.ContextKey;
 import org.codepond.wizardroid.persistence.ContextManager;
 import org.codepond.wizardroid.persistence.ContextManagerImpl;
+import org.codepond.wizardroid.persistence.ContextObserver;
+import org.codepond.wizardroid.persistence.ContextVariable;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Date;
@@ -53,4 +58,166 @@ public class ContextManagerImplTest {
         assertTrue(String.format("contextManager does not contain value for context variable named: '%s'", CONTEXT_VARIABLE_NAME),
                 contextManager.getContext().containsKey(CONTEXT_VARIABLE_NAME));
     }
+
+    @Test
+    public void testTypedKey_PutValue_WrittenToContext() {
+        ContextKey<String> key = ContextKey.of("typedName", String.class);
+        ContextManagerImpl typedContextManager = new ContextManagerImpl();
+        typedContextManager.setContext(new Bundle());
+        typedContextManager.put(key, "WizarDroid");
+        assertEquals("WizarDroid", typedContextManager.get(key));
+        assertEquals("WizarDroid", typedContextManager.getContext().getString("typedName"));
+    }
+
+    @Test
+    public void testTypedKey_PersistStepContext_ReadsPersistedValue() {
+        ContextKey<Date> key = ContextKey.of(CONTEXT_VARIABLE_NAME, Date.class);
+        ContextManagerImpl typedContextManager = new ContextManagerImpl();
+        typedContextManager.setContext(new Bundle());
+        assertNull(typedContextManager.get(key));
+        typedContextManager.persistStepContext(sourceStep);
+        assertEquals(sourceStep.getTimestamp(), typedContextManager.get(key));
+    }
+
+    @Test
+    public void testTypedKey_PutObservedValue_ObserverReadsNewValueFromContext() {
+        ContextKey<String> key = ContextKey.of("observedName", String.class);
+        ContextManagerImpl typedContextManager = new ContextManagerImpl();
+        typedContextManager.setContext(new Bundle());
+        final String[] observed = new String[1];
+        typedContextManager.addObserver("observedName", new ContextObserver() {
+            @Override
+            public void onContextChanged(String key, Bundle context) {
+                observed[0] = context.getString(key);
+            }
+        });
+        typedContextManager.put(key, "WizarDroid");
+        assertEquals("WizarDroid", observed[0]);
+    }
+
+    @Test
+    public void testObserver_RemovedWhileNotified_OtherObserversStillNotified() {
+        ContextKey<String> key = ContextKey.of("selfRemovingName", String.class);
+        final ContextManagerImpl typedContextManager = new ContextManagerImpl();
+        typedContextManager.setContext(new Bundle());
+        final int[] notified = new int[2];
+        typedContextManager.addObserver("selfRemovingName", new ContextObserver() {
+            @Override
+            public void onContextChanged(String key, Bundle context) {
+                notified[0]++;
+                typedContextManager.removeObserver(key, this);
+            }
+        });
+        typedContextManager.addObserver("selfRemovingName", new ContextObserver() {
+            @Override
+            public void onContextChanged(String key, Bundle context) {
+                notified[1]++;
+            }
+        });
+        typedContextManager.put(key, "first");
+        typedContextManager.put(key, "second");
+        assertEquals(1, notified[0]);
+        assertEquals(2, notified[1]);
+    }
+
+    @Test
+    public void testObserver_AddedFromWorkerThread_Notified() throws InterruptedException {
+        ContextKey<String> key = ContextKey.of("workerObservedName", String.class);
+        final ContextManagerImpl typedContextManager = new ContextManagerImpl();
+        typedContextManager.setContext(new Bundle());
+        final String[] observed = new String[1];
+        final Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                typedContextManager.addObserver("workerObservedName", new ContextObserver() {
+                    @Override
+                    public void onContextChanged(String key, Bundle context) {
+                        observed[0] = context.getString(key);
+                    }
+                });
+            }
+        });
+        worker.start();
+        worker.join();
+        typedContextManager.put(key, "WizarDroid");
+        assertEquals("WizarDroid", observed[0]);
+    }
+
+    @Test
+    public void testPersistContextVariables_WorkerThread_ThrowsIllegalStateException() throws InterruptedException {
+        final ContextManagerImpl workerContextManager = new ContextManagerImpl();
+        workerContextManager.setContext(new Bundle());
+        final Throwable[] thrown = new Throwable[1];
+        final Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    workerContextManager.persistContextVariables(new ArrayStep());
+                } catch (IllegalStateException e) {
+                    thrown[0] = e;
+                }
+            }
+        });
+        worker.start();
+        worker.join();
+        assertNotNull(thrown[0]);
+        assertTrue(workerContextManager.getContext().isEmpty());
+    }
+
+    @Test
+    public void testPersistContextVariables_ArrayField_LoadedIntoNextStep() {
+        ContextManagerImpl arrayContextManager = new ContextManagerImpl();
+        arrayContextManager.setContext(new Bundle());
+        arrayContextManager.persistContextVariables(new ArrayStep());
+
+        ArrayStep next = new ArrayStep();
+        next.scores = null;
+        arrayContextManager.loadContextVariables(next);
+        assertEquals(3, next.scores.length);
+        assertEquals(2, next.scores[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypedKey_RedeclareWithOtherType_ThrowsIllegalArgumentException() {
+        ContextKey.of("redeclared", String.class);
+        ContextKey.of("redeclared", Integer.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypedKey_FieldOfOtherType_ThrowsIllegalArgumentException() {
+        ContextKey.of("mismatchedCount", Integer.class);
+        ContextManagerImpl typedContextManager = new ContextManagerImpl();
+        typedContextManager.setContext(new Bundle());
+        typedContextManager.persistContextVariables(new MismatchedStep());
+    }
+
+    @Test
+    public void testTypedKey_DeclaredAfterStepPersisted_PersistedValueRead() {
+        ContextManagerImpl typedContextManager = new ContextManagerImpl();
+        typedContextManager.setContext(new Bundle());
+        LateKeyStep step = new LateKeyStep();
+        typedContextManager.persistContextVariables(step);
+
+        ContextKey<String> key = ContextKey.of("lateKeyName", String.class);
+        typedContextManager.put(key, "typed");
+        step.lateKeyName = "persisted";
+        typedContextManager.persistContextVariables(step);
+
+        assertEquals("persisted", typedContextManager.get(key));
+    }
+
+    public static class ArrayStep {
+        @ContextVariable
+        private int[] scores = {1, 2, 3};
+    }
+
+    public static class MismatchedStep {
+        @ContextVariable
+        private String mismatchedCount = "1";
+    }
+
+    public static class LateKeyStep {
+        @ContextVariable
+        private String lateKeyName = "initial";
+    }
 }
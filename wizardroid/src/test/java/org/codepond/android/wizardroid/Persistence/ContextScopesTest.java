@@ -0,0 +1,150 @@
+package org.codepond.android.wizardroid.Persistence;
+
+import android.os.Bundle;
+
+import org.codepond.wizardroid.persistence.ContextManagerImpl;
+import org.codepond.wizardroid.persistence.ContextVariable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scopes of context variables, tracked by {@link ContextManagerImpl}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ContextScopesTest {
+    private static final int[] TOP_LEVEL = new int[0];
+    private static final int[] SUB_FLOW = new int[] {2};
+
+    private ContextManagerImpl contextManager;
+
+    @Before
+    public void setUp() {
+        contextManager = new ContextManagerImpl();
+        contextManager.setContext(new Bundle());
+    }
+
+    @Test
+    public void testSetCurrentStep_StepScope_KeptForNextStepOnly() {
+        write(TOP_LEVEL, 2, new DraftStep());
+
+        contextManager.setCurrentStep(TOP_LEVEL, 3);
+        assertTrue(contextManager.getContext().containsKey("draft"));
+
+        contextManager.setCurrentStep(TOP_LEVEL, 4);
+        assertFalse(contextManager.getContext().containsKey("draft"));
+    }
+
+    @Test
+    public void testSetCurrentStep_StepScopeRewritten_ScopeRestarts() {
+        write(TOP_LEVEL, 2, new DraftStep());
+        contextManager.setCurrentStep(TOP_LEVEL, 3);
+        contextManager.persistContextVariables(new DraftStep());
+
+        contextManager.setCurrentStep(TOP_LEVEL, 4);
+        assertTrue(contextManager.getContext().containsKey("draft"));
+    }
+
+    @Test
+    public void testSetCurrentStep_PositionScope_KeptUntilLastReadingStep() {
+        write(TOP_LEVEL, 1, new CodeStep());
+
+        contextManager.setCurrentStep(TOP_LEVEL, 3);
+        assertTrue(contextManager.getContext().containsKey("code"));
+
+        contextManager.setCurrentStep(TOP_LEVEL, 4);
+        assertFalse(contextManager.getContext().containsKey("code"));
+    }
+
+    @Test
+    public void testSetCurrentStep_PositionScopeInsideSubFlow_KeptWhileEntryInScope() {
+        write(TOP_LEVEL, 1, new CodeStep());
+
+        contextManager.setCurrentStep(SUB_FLOW, 5);
+        assertTrue(contextManager.getContext().containsKey("code"));
+
+        contextManager.setCurrentStep(TOP_LEVEL, 4);
+        assertFalse(contextManager.getContext().containsKey("code"));
+    }
+
+    @Test
+    public void testSetCurrentStep_SubFlowLeft_SubFlowScopeEnded() {
+        write(SUB_FLOW, 0, new CodeStep());
+
+        contextManager.setCurrentStep(TOP_LEVEL, 3);
+        assertFalse(contextManager.getContext().containsKey("code"));
+    }
+
+    @Test
+    public void testSetCurrentStep_WizardScopeOverridesScope_NeverDropped() {
+        write(TOP_LEVEL, 0, new DraftStep());
+        contextManager.persistContextVariables(new NameAsDraftStep());
+
+        contextManager.setCurrentStep(TOP_LEVEL, 5);
+        assertTrue(contextManager.getContext().containsKey("draft"));
+    }
+
+    @Test
+    public void testGetSavedContext_ValueOutOfScope_LeftOutOfCopy() {
+        contextManager.getContext().putString("name", "name");
+        write(TOP_LEVEL, 5, new CodeStep());
+
+        final Bundle saved = contextManager.getSavedContext();
+        assertFalse(saved.containsKey("code"));
+        assertTrue(saved.containsKey("name"));
+        assertTrue(contextManager.getContext().containsKey("code"));
+    }
+
+    @Test
+    public void testSetContext_SavedContext_ScopesRestored() {
+        write(TOP_LEVEL, 1, new CodeStep());
+        contextManager.setCurrentStep(TOP_LEVEL, 2);
+        final Bundle saved = contextManager.getSavedContext();
+
+        final ContextManagerImpl restored = new ContextManagerImpl();
+        restored.setContext(saved);
+        assertEquals(1, restored.getContext().size());
+
+        restored.setCurrentStep(TOP_LEVEL, 4);
+        assertFalse(restored.getContext().containsKey("code"));
+    }
+
+    @Test
+    public void testSetContext_NewContext_ScopesCleared() {
+        write(TOP_LEVEL, 1, new CodeStep());
+        final Bundle context = new Bundle();
+        context.putString("code", "code");
+        contextManager.setContext(context);
+
+        contextManager.setCurrentStep(TOP_LEVEL, 5);
+        assertTrue(contextManager.getContext().containsKey("code"));
+    }
+
+    /**
+     * Persist a step shown at a position
+     */
+    private void write(int[] flow, int position, Object step) {
+        contextManager.setCurrentStep(flow, position);
+        contextManager.persistContextVariables(step);
+    }
+
+    public static class DraftStep {
+        @ContextVariable(scope = ContextVariable.STEP)
+        private String draft = "draft";
+    }
+
+    public static class NameAsDraftStep {
+        @ContextVariable
+        private String draft = "name";
+    }
+
+    public static class CodeStep {
+        @ContextVariable(scope = 3)
+        private String code = "code";
+    }
+}
@@ -0,0 +1,134 @@
+package org.codepond.android.wizardroid.Persistence;
+
+import android.os.Bundle;
+
+import org.codepond.wizardroid.persistence.ContextKey;
+import org.codepond.wizardroid.persistence.ContextManagerImpl;
+import org.codepond.wizardroid.persistence.LargeValueCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class LargeValueCacheTest {
+    private static final int BUDGET = 1000;
+
+    private List<String> loaded;
+    private LargeValueCache cache;
+
+    @Before
+    public void setUp() {
+        loaded = new ArrayList<String>();
+        cache = new LargeValueCache(BUDGET, new LargeValueCache.Loader() {
+            @Override
+            public Object load(String handle) {
+                loaded.add(handle);
+                return new byte[Integer.parseInt(handle.substring(handle.indexOf(':') + 1))];
+            }
+        });
+    }
+
+    @Test
+    public void testSize_PrimitiveArrays_MeasuredInBytes() {
+        cache.put("bytes", new byte[100]);
+        cache.put("ints", new int[10]);
+        cache.put("doubles", new double[5]);
+
+        assertEquals(100 + 40 + 40, cache.size());
+    }
+
+    @Test
+    public void testPut_OverBudget_EvictsLeastRecentlyUsed() {
+        cache.put("first:400", new byte[400]);
+        cache.put("second:400", new byte[400]);
+        cache.get("first:400", byte[].class);
+        cache.put("third:400", new byte[400]);
+
+        assertEquals(800, cache.size());
+        assertEquals(400, cache.get("first:400", byte[].class).length);
+        assertEquals(0, loaded.size());
+
+        //The second value was evicted and is reloaded
+        assertEquals(400, cache.get("second:400", byte[].class).length);
+        assertEquals(1, loaded.size());
+        assertEquals("second:400", loaded.get(0));
+    }
+
+    @Test
+    public void testPut_LargerThanBudget_NotKept() {
+        cache.put("huge:2000", new byte[2000]);
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testGet_NoLoader_EvictedValueIsLost() {
+        final LargeValueCache lossyCache = new LargeValueCache(BUDGET, null);
+        lossyCache.put("first", new byte[600]);
+        lossyCache.put("second", new byte[600]);
+
+        assertNull(lossyCache.get("first", byte[].class));
+    }
+
+    @Test
+    public void testCodec_PutThroughKey_ContextHoldsProvidedHandle() {
+        final ContextKey<byte[]> key = ContextKey.of("largeValueHandle", byte[].class, cache.codec(byte[].class, new SizeHandles()));
+        final ContextManagerImpl contextManager = new ContextManagerImpl();
+        contextManager.setContext(new Bundle());
+        final byte[] value = new byte[300];
+
+        contextManager.put(key, value);
+
+        assertEquals("largeValueHandle:300", contextManager.getContext().getString("largeValueHandle"));
+        assertSame(value, contextManager.get(key));
+        assertEquals(300, cache.size());
+    }
+
+    @Test
+    public void testCodec_ValueEvicted_ContextManagerReloadsIt() {
+        final ContextKey<byte[]> key = ContextKey.of("largeValueEvicted", byte[].class, cache.codec(byte[].class, new SizeHandles()));
+        final ContextManagerImpl contextManager = new ContextManagerImpl();
+        contextManager.setContext(new Bundle());
+        contextManager.put(key, new byte[300]);
+
+        cache.evictAll();
+
+        //The context manager doesn't keep the value, it's reloaded through the cache
+        assertArrayEquals(new byte[300], contextManager.get(key));
+        assertEquals(1, loaded.size());
+        assertEquals("largeValueEvicted:300", loaded.get(0));
+    }
+
+    @Test
+    public void testCodec_PutNull_ValueRemovedFromCacheAndContext() {
+        final ContextKey<byte[]> key = ContextKey.of("largeValueRemoved", byte[].class, cache.codec(byte[].class, new SizeHandles()));
+        final ContextManagerImpl contextManager = new ContextManagerImpl();
+        contextManager.setContext(new Bundle());
+        contextManager.put(key, new byte[300]);
+
+        contextManager.put(key, null);
+
+        assertEquals(0, cache.size());
+        assertNull(contextManager.getContext().getString("largeValueRemoved"));
+        assertNull(contextManager.get(key));
+    }
+
+    /**
+     * Handles the loader can reload a zeroed array of the same size from
+     */
+    private static class SizeHandles implements LargeValueCache.HandleProvider<byte[]> {
+        @Override
+        public String getHandle(String name, byte[] value) {
+            return name + ":" + value.length;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.codepond.android.wizardroid.Submission;
+
+import android.os.Bundle;
+
+import org.codepond.wizardroid.submission.Submission;
+import org.codepond.wizardroid.submission.SubmissionQueue;
+import org.codepond.wizardroid.submission.SubmissionTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class SubmissionQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService executor;
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        directory = folder.newFolder("submissions");
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFullBatchesAreSentAutomatically() throws Exception {
+        FakeTransport transport = new FakeTransport(0);
+        SubmissionQueue queue = createQueue(transport, 2);
+        for (int i = 0; i < 5; i++) {
+            queue.enqueue(createContext("user" + i));
+        }
+        drain();
+
+        assertEquals(2, transport.batches.size());
+        assertEquals(2, transport.batches.get(0).size());
+        assertEquals(2, transport.batches.get(1).size());
+        assertEquals(1, queue.getPendingCount());
+
+        queue.flush();
+        drain();
+
+        assertEquals(3, transport.batches.size());
+        assertEquals(1, transport.batches.get(2).size());
+        assertEquals("{\"name\":\"user4\"}", transport.batches.get(2).get(0).getPayload());
+        assertEquals(0, queue.getPendingCount());
+        assertArrayEquals(new String[] { "next.id" }, directory.list());
+    }
+
+    @Test
+    public void testFailedBatchIsRetriedWithBackoff() throws Exception {
+        FakeTransport transport = new FakeTransport(2);
+        SubmissionQueue queue = createQueue(transport, 10);
+        queue.enqueue(createContext("first"));
+        queue.enqueue(createContext("second"));
+        queue.flush();
+
+        assertTrue("Batch was not retried", transport.attempts.await(5, TimeUnit.SECONDS));
+        drain();
+
+        assertEquals(3, transport.batches.size());
+        long firstId = transport.batches.get(0).get(0).getId();
+        for (List<Submission> batch : transport.batches) {
+            assertEquals(2, batch.size());
+            assertEquals(firstId, batch.get(0).getId());
+        }
+        assertTrue(transport.times.get(1) - transport.times.get(0) >= 10);
+        assertTrue(transport.times.get(2) - transport.times.get(1) >= 20);
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void testQueuedSubmissionsSurviveRestart() throws Exception {
+        SubmissionQueue offline = new SubmissionQueue.Builder(directory, new FakeTransport(Integer.MAX_VALUE))
+                .setExecutor(executor)
+                .setBackoff(1, 1, TimeUnit.HOURS)
+                .create();
+        offline.enqueue(createContext("first"));
+        offline.enqueue(createContext("second"));
+        offline.flush();
+        offline.shutdown();
+        drain();
+
+        FakeTransport transport = new FakeTransport(0);
+        SubmissionQueue queue = createQueue(transport, 10);
+        assertEquals(2, queue.getPendingCount());
+        queue.flush();
+        drain();
+
+        assertEquals(1, transport.batches.size());
+        assertEquals("{\"name\":\"first\"}", transport.batches.get(0).get(0).getPayload());
+        assertEquals("{\"name\":\"second\"}", transport.batches.get(0).get(1).getPayload());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void testIdsKeepIncreasingAfterQueueWasEmptied() throws Exception {
+        FakeTransport transport = new FakeTransport(0);
+        SubmissionQueue first = createQueue(transport, 1);
+        final long firstId = first.enqueue(createContext("first")).get(5, TimeUnit.SECONDS);
+        first.shutdown();
+        drain();
+        assertEquals(0, first.getPendingCount());
+
+        SubmissionQueue second = createQueue(transport, 1);
+        final long secondId = second.enqueue(createContext("second")).get(5, TimeUnit.SECONDS);
+        drain();
+
+        assertTrue("Id " + secondId + " was reused after " + firstId, secondId > firstId);
+        assertEquals(2, transport.batches.size());
+        assertEquals(secondId, transport.batches.get(1).get(0).getId());
+    }
+
+    @Test
+    public void testStoreFailureIsReportedByEnqueue() throws Exception {
+        SubmissionQueue queue = createQueue(new FakeTransport(0), 10);
+        for (File file : directory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+
+        try {
+            queue.enqueue(createContext("lost")).get(5, TimeUnit.SECONDS);
+            fail("Storing the submission should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    private SubmissionQueue createQueue(FakeTransport transport, int batchSize) throws Exception {
+        SubmissionQueue queue = new SubmissionQueue.Builder(directory, transport)
+                .setExecutor(executor)
+                .setBatchSize(batchSize)
+                .setBackoff(10, 1000, TimeUnit.MILLISECONDS)
+                .create();
+        drain();
+        return queue;
+    }
+
+    private static Bundle createContext(String name) {
+        Bundle context = new Bundle();
+        context.putString("name", name);
+        return context;
+    }
+
+    /**
+     * Wait for the tasks queued on the single worker thread so far
+     */
+    private void drain() throws Exception {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * In-process transport recording the batches it receives. Fails the given number of first attempts.
+     */
+    private static class FakeTransport implements SubmissionTransport {
+        final List<List<Submission>> batches = new ArrayList<List<Submission>>();
+        final List<Long> times = new ArrayList<Long>();
+        final CountDownLatch attempts = new CountDownLatch(3);
+        private int failures;
+
+        FakeTransport(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public void send(List<Submission> batch) throws IOException {
+            batches.add(new ArrayList<Submission>(batch));
+            times.add(System.nanoTime() / 1000000);
+            attempts.countDown();
+            if (failures > 0) {
+                failures--;
+                throw new IOException("Offline");
+            }
+        }
+    }
+}
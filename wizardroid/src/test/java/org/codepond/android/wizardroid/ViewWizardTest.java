@@ -0,0 +1,233 @@
+package org.codepond.android.wizardroid;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.codepond.wizardroid.ViewStep;
+import org.codepond.wizardroid.ViewWizard;
+import org.codepond.wizardroid.Wizard;
+import org.codepond.wizardroid.WizardFlow;
+import org.codepond.wizardroid.WizardStep;
+import org.codepond.wizardroid.persistence.ContextVariable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ViewWizardTest {
+    private Activity activity;
+    private FrameLayout container;
+    private Wizard.WizardCallbacks mockCallbacks;
+
+    @Before
+    public void setUp() {
+        activity = Robolectric.buildActivity(Activity.class).create().get();
+        container = new FrameLayout(activity);
+        activity.setContentView(container);
+        mockCallbacks = createNiceMock(Wizard.WizardCallbacks.class);
+        replay(mockCallbacks);
+    }
+
+    @Test
+    public void testGoNext_ContextVariable_BoundToNextStep() {
+        final ViewWizard wizard = createWizard(4);
+        wizard.start(null);
+        ((CounterStep) wizard.getCurrentStep()).name = "first";
+
+        wizard.goNext();
+
+        assertEquals("first", wizard.getContext().getString("name"));
+        assertEquals("first", ((CounterStep) wizard.getCurrentStep()).name);
+    }
+
+    @Test
+    public void testGoNext_RequiredStepCompleted_MovesToNextStep() {
+        final ViewWizard wizard = new ViewWizard(new WizardFlow.Builder()
+                .addViewStep(CounterStep.class, true)
+                .addViewStep(CounterStep.class)
+                .create(), activity, container, mockCallbacks);
+        wizard.start(null);
+
+        wizard.goNext();
+        assertEquals(0, wizard.getCurrentStepPosition());
+
+        wizard.getCurrentStep().notifyCompleted(true);
+        assertTrue(wizard.isStepCompleted(0));
+        wizard.goNext();
+        assertEquals(1, wizard.getCurrentStepPosition());
+    }
+
+    @Test
+    public void testNotifyCompleted_ReleasedStep_AppliedToItsPosition() {
+        final ViewWizard wizard = createWizard(4);
+        wizard.start(null);
+        final ViewStep first = wizard.getCurrentStep();
+        wizard.goNext();
+        wizard.goNext();
+
+        first.notifyCompleted(false);
+
+        assertFalse(wizard.isStepCompleted(0));
+        assertTrue(wizard.isStepCompleted(1));
+    }
+
+    @Test
+    public void testGoNextGoBack_Branch_ReturnsToBranchOrigin() {
+        final ViewWizard wizard = new ViewWizard(new WizardFlow.Builder()
+                .addViewStep(CounterStep.class)
+                .addBranch("name", "skip", 2)
+                .addViewStep(CounterStep.class)
+                .addViewStep(CounterStep.class)
+                .create(), activity, container, mockCallbacks);
+        wizard.start(null);
+        ((CounterStep) wizard.getCurrentStep()).name = "skip";
+
+        wizard.goNext();
+        assertEquals(2, wizard.getCurrentStepPosition());
+
+        wizard.goBack();
+        assertEquals(0, wizard.getCurrentStepPosition());
+    }
+
+    @Test
+    public void testGoNext_SubFlow_EnteredAndLeft() {
+        final ViewWizard wizard = new ViewWizard(new WizardFlow.Builder()
+                .addViewStep(CounterStep.class)
+                .addSubFlow(new WizardFlow.SubFlow() {
+                    @Override
+                    public WizardFlow onSetup() {
+                        return new WizardFlow.Builder()
+                                .addViewStep(CounterStep.class)
+                                .addViewStep(CounterStep.class)
+                                .create();
+                    }
+                })
+                .addViewStep(CounterStep.class)
+                .create(), activity, container, mockCallbacks);
+        wizard.start(null);
+
+        wizard.goNext();
+        assertEquals(1, wizard.getSubFlowDepth());
+        assertEquals(0, wizard.getCurrentStepPosition());
+
+        wizard.goNext();
+        wizard.goNext();
+        assertEquals(0, wizard.getSubFlowDepth());
+        assertEquals(2, wizard.getCurrentStepPosition());
+        assertTrue(wizard.isStepCompleted(1));
+        assertTrue(wizard.isLastStep());
+
+        wizard.goBack();
+        assertEquals(1, wizard.getSubFlowDepth());
+        assertEquals(1, wizard.getCurrentStepPosition());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_FlowOfWizardSteps_ThrowsIllegalArgumentException() {
+        new ViewWizard(new WizardFlow.Builder().addStep(WizardStep.class).create(), activity, container, mockCallbacks);
+    }
+
+    @Test
+    public void testNotifyCompleted_StepNotAttached_Ignored() {
+        new CounterStep().notifyCompleted(true);
+    }
+
+    @Test
+    public void testGoNext_DistantStep_ReleasedAndRecreatedWithItsState() {
+        final ViewWizard wizard = createWizard(4);
+        wizard.start(null);
+        final ViewStep first = wizard.getCurrentStep();
+        ((CounterStep) first).counter = 7;
+
+        wizard.goNext();
+        wizard.goNext();
+        wizard.goBack();
+        wizard.goBack();
+
+        final ViewStep recreated = wizard.getCurrentStep();
+        assertNotSame(first, recreated);
+        assertEquals(7, ((CounterStep) recreated).counter);
+        assertSame(recreated.getView(), container.getChildAt(0));
+    }
+
+    @Test
+    public void testGoBack_NeighbourStep_Reused() {
+        final ViewWizard wizard = createWizard(4);
+        wizard.start(null);
+        final ViewStep first = wizard.getCurrentStep();
+
+        wizard.goNext();
+        wizard.goBack();
+
+        assertSame(first, wizard.getCurrentStep());
+    }
+
+    @Test
+    public void testStart_SavedState_PositionContextAndReleasedStepsRestored() {
+        final ViewWizard wizard = createWizard(4);
+        wizard.start(null);
+        ((CounterStep) wizard.getCurrentStep()).counter = 3;
+        ((CounterStep) wizard.getCurrentStep()).name = "saved";
+        wizard.goNext();
+        wizard.goNext();
+        final Bundle state = new Bundle();
+        wizard.saveState(state);
+
+        final ViewWizard restored = createWizard(4);
+        restored.start(state);
+
+        assertEquals(2, restored.getCurrentStepPosition());
+        assertEquals("saved", restored.getContext().getString("name"));
+        assertTrue(restored.isStepCompleted(1));
+        assertFalse(restored.isStepCompleted(2));
+        restored.goBack();
+        restored.goBack();
+        assertEquals(3, ((CounterStep) restored.getCurrentStep()).counter);
+    }
+
+    private ViewWizard createWizard(int stepsCount) {
+        final WizardFlow.Builder builder = new WizardFlow.Builder();
+        for (int i = 0; i < stepsCount; i++) {
+            builder.addViewStep(CounterStep.class);
+        }
+        return new ViewWizard(builder.create(), activity, container, mockCallbacks);
+    }
+
+    /**
+     * Step keeping a counter in its saved state and a name in the wizard context
+     */
+    public static class CounterStep extends ViewStep {
+        @ContextVariable
+        private String name;
+        private int counter;
+
+        @Override
+        protected View onCreateView(LayoutInflater inflater, ViewGroup container) {
+            return new FrameLayout(inflater.getContext());
+        }
+
+        @Override
+        public void onSaveState(Bundle state) {
+            state.putInt("counter", counter);
+        }
+
+        @Override
+        public void onRestoreState(Bundle state) {
+            counter = state.getInt("counter");
+        }
+    }
+}
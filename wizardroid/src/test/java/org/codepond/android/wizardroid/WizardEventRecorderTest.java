@@ -0,0 +1,76 @@
+package org.codepond.android.wizardroid;
+
+import org.codepond.wizardroid.WizardEventRecorder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WizardEventRecorderTest {
+    @Before
+    public void setUp() {
+        WizardEventRecorder.setCapacity(4);
+    }
+
+    @After
+    public void tearDown() {
+        WizardEventRecorder.setCapacity(256);
+    }
+
+    @Test
+    public void testRecord_MoreEventsThanCapacity_KeepsLatestEvents() throws Exception {
+        final int source = WizardEventRecorder.newSourceId();
+        for (int i = 0; i < 6; i++) {
+            WizardEventRecorder.record(source, WizardEventRecorder.GO_NEXT, i, i + 1);
+        }
+        assertEquals(4, WizardEventRecorder.size());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WizardEventRecorder.writeBinary(out);
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(0x575a4556, in.readInt());
+        assertEquals(2, in.readInt());
+        assertEquals(4, in.readInt());
+        for (int i = 2; i < 6; i++) {
+            in.readLong();
+            in.readLong();
+            assertEquals(source, in.readInt());
+            assertEquals(WizardEventRecorder.GO_NEXT, in.readByte());
+            assertEquals(i, in.readInt());
+            assertEquals(i + 1, in.readInt());
+        }
+    }
+
+    @Test
+    public void testWriteText_WritesOneLinePerEventWithItsSource() throws Exception {
+        final int wizard = WizardEventRecorder.newSourceId();
+        final int context = WizardEventRecorder.newSourceId();
+        WizardEventRecorder.record(wizard, WizardEventRecorder.STEP_COMPLETED, 7, 1);
+        WizardEventRecorder.record(context, WizardEventRecorder.PERSIST_CONTEXT, 7, 3, WizardEventRecorder.start());
+
+        final StringWriter writer = new StringWriter();
+        WizardEventRecorder.writeText(writer);
+        final String[] lines = writer.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("+0.000ms #" + wizard + " stepCompleted pos=7 value=1"));
+        assertTrue(lines[1], lines[1].contains("#" + context + " persistContext pos=7 value=3"));
+    }
+
+    @Test
+    public void testRecord_Disabled_RecordsNothing() {
+        WizardEventRecorder.setEnabled(false);
+        try {
+            WizardEventRecorder.record(WizardEventRecorder.newSourceId(), WizardEventRecorder.GO_BACK, 1, 0);
+        } finally {
+            WizardEventRecorder.setEnabled(true);
+        }
+        assertEquals(0, WizardEventRecorder.size());
+    }
+}
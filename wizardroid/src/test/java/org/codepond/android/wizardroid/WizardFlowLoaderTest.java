@@ -0,0 +1,102 @@
+package org.codepond.android.wizardroid;
+
+import android.os.Bundle;
+
+import org.codepond.wizardroid.WizardFlow;
+import org.codepond.wizardroid.WizardFlowLoader;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads the flows compiled from src/test/flows by the compileTestWizardFlows task
+ */
+@RunWith(RobolectricTestRunner.class)
+public class WizardFlowLoaderTest {
+    private static final int MAGIC = 0x575A464C;
+
+    @Test
+    public void testLoad_XmlFlow_StepsAndBranchesLoaded() throws IOException {
+        final WizardFlow flow = loadCompiled("account");
+
+        assertEquals(4, flow.getStepsCount());
+        assertEquals(TestStep.class, flow.getStepClass(0));
+        assertFalse(flow.isStepRequired(0));
+        assertTrue(flow.isStepRequired(1));
+        assertFalse(flow.isStepRequired(2));
+
+        final Bundle context = new Bundle();
+        assertEquals(2, flow.getNextStepPosition(1, context));
+        context.putString("accountType", "business");
+        assertEquals(3, flow.getNextStepPosition(1, context));
+    }
+
+    @Test
+    public void testLoad_JsonFlowWithStringFlags_RequiredFlagsParsed() throws IOException {
+        final WizardFlow flow = loadCompiled("survey");
+
+        assertEquals(4, flow.getStepsCount());
+        assertFalse(flow.isStepRequired(0));
+        assertTrue(flow.isStepRequired(1));
+        assertTrue(flow.isStepRequired(2));
+        assertFalse(flow.isStepRequired(3));
+
+        final Bundle context = new Bundle();
+        context.putString("skip", "yes");
+        assertEquals(2, flow.getNextStepPosition(0, context));
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoad_NotACompiledFlow_ThrowsIOException() throws IOException {
+        WizardFlowLoader.load(new ByteArrayInputStream("<flow/>".getBytes("UTF-8")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoad_UnsupportedVersion_ThrowsIOException() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(99);
+        out.flush();
+        WizardFlowLoader.load(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoad_UnknownStepClass_ThrowsIOException() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(1);
+        out.writeShort(0);
+        out.writeShort(1);
+        out.writeUTF("com.example.MissingStep");
+        out.writeBoolean(false);
+        out.writeByte(0);
+        out.flush();
+        WizardFlowLoader.load(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private static WizardFlow loadCompiled(String name) throws IOException {
+        final String dir = System.getProperty("wizardroid.testFlowsDir");
+        assertNotNull("Run the tests with gradle, which compiles the test flows", dir);
+        final InputStream in = new FileInputStream(new File(dir, name + WizardFlowLoader.ASSET_EXTENSION));
+        try {
+            return WizardFlowLoader.load(in);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -5,6 +5,10 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
 public class WizardFlowTest {
     @Before
     public void setUp() {
@@ -36,6 +40,27 @@ public class WizardFlowTest {
 
     }*/
 
+    @Test
+    public void testBuilder_AddSubFlow_ChildFlowIsNotSetUp() {
+        final int[] setUpCount = new int[1];
+        WizardFlow flow = new WizardFlow.Builder()
+                .addStep(TestStep.class)
+                .addSubFlow(new WizardFlow.SubFlow() {
+                    @Override
+                    public WizardFlow onSetup() {
+                        setUpCount[0]++;
+                        return new WizardFlow.Builder().addStep(TestStep.class).create();
+                    }
+                })
+                .create();
+
+        assertEquals(2, flow.getStepsCount());
+        assertNull(flow.getStepClass(1));
+        assertFalse(flow.isStepRequired(1));
+        flow.newSession();
+        assertEquals(0, setUpCount[0]);
+    }
+
     @Test(expected = RuntimeException.class)
     public void testBuilder_CallingCreateWhenBuilderInvlid_ThrowsRuntimeException() {
         WizardFlow actualFlow = new WizardFlow.Builder().create();
@@ -1,11 +1,19 @@
 package org.codepond.android.wizardroid;
 
+import android.os.Bundle;
 import android.support.v4.app.FragmentActivity;
+import android.support.v4.view.ViewPager;
+import android.view.View;
 
+import org.codepond.wizardroid.PagedWizardFlow;
+import org.codepond.wizardroid.R;
+import org.codepond.wizardroid.StepProvider;
 import org.codepond.wizardroid.Wizard;
 import org.codepond.wizardroid.WizardFlow;
 import org.codepond.wizardroid.WizardStep;
-import org.codepond.wizardroid.persistence.ContextManager;
+import org.codepond.wizardroid.persistence.ContextManagerImpl;
+import org.codepond.wizardroid.validation.ValidationFailure;
+import org.codepond.wizardroid.validation.WizardValidator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -14,11 +22,17 @@ import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * JUnit test class for {@link org.codepond.wizardroid.Wizard}
@@ -26,40 +40,22 @@ import static org.junit.Assert.assertEquals;
 @RunWith(RobolectricTestRunner.class)
 public class WizardTest {
     private Wizard wizard;
-    private WizardFlow mockFlow;
-    private List mockSteps;
     private FragmentActivity mockContext;
-    private TestStep mockStep1;
-    private TestStep mockStep2;
-    private WizardStep.OnStepStateChangedListener mockStepStateChangedListener;
-    private ContextManager mockContextManager;
+    private Wizard.WizardCallbacks mockCallbacks;
+    private ContextManagerImpl contextManager;
 
     @Before
     public void setUp() {
-        mockStep1 = new TestStep();
-        mockStep1.setTimestamp(new Date());
-        mockStep2 = new TestStep();
-        mockStepStateChangedListener = createMock(WizardStep.OnStepStateChangedListener.class);
-        mockStepStateChangedListener.onStepStateChanged(anyObject(TestStep.class));
-        expectLastCall().anyTimes();
-        mockStep1.setOnStepChangedListener(mockStepStateChangedListener);
-        mockStep2.setOnStepChangedListener(mockStepStateChangedListener);
-        mockSteps = new ArrayList();
-        mockSteps.add(mockStep1);
-        mockSteps.add(mockStep2);
-        mockFlow = createMock("mockFlow", WizardFlow.class);
-        mockContext = Robolectric.buildActivity(FragmentActivity.class).create().get();
-
-        expect(mockFlow.getFragmentContainerId()).andReturn(1234);
-        expect(mockFlow.getFragmentManager()).andReturn(mockContext.getSupportFragmentManager());
-        expect(mockFlow.getSteps()).andReturn(mockSteps).anyTimes();
-        replay(mockFlow);
-
-        mockContextManager = createMock(ContextManager.class);
-        mockContextManager.loadStepContext(anyObject(TestStep.class));
-        mockContextManager.persistStepContext(anyObject(TestStep.class));
-
-        wizard = new Wizard(mockFlow, mockContextManager);
+        mockContext = Robolectric.buildActivity(FragmentActivity.class).create().start().resume().get();
+        mockCallbacks = createNiceMock(Wizard.WizardCallbacks.class);
+        replay(mockCallbacks);
+        contextManager = new ContextManagerImpl();
+        contextManager.setContext(new Bundle());
+
+        wizard = createWizard(new WizardFlow.Builder()
+                .addStep(TestStep.class)
+                .addStep(TestStep.class)
+                .create());
     }
 
     @After
@@ -67,6 +63,12 @@ public class WizardTest {
 
     }
 
+    private Wizard createWizard(WizardFlow flow) {
+        final Wizard wizard = new Wizard(flow, contextManager, mockCallbacks, mockContext, mockContext.getSupportFragmentManager());
+        wizard.setCurrentStep(0);
+        return wizard;
+    }
+
     @Test
     public void testNext_AdvanceOneStep_StepPositionIsOne() {
         int expectedStepPosition = 1;
@@ -84,6 +86,362 @@ public class WizardTest {
         assertEquals(String.format("expectedStepPosition should be 0, actual: %s", wizard.getCurrentStepPosition()),
                 expectedStepPosition, wizard.getCurrentStepPosition());
     }
+
+    @Test
+    public void testAddStep_RegularFlow_StepAddedAtTheEnd() {
+        wizard.addStep(TestStep.class, true);
+        assertEquals(3, wizard.getFlow().getStepsCount());
+        assertTrue(wizard.getFlow().isStepRequired(2));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddStep_PagedFlow_ThrowsUnsupportedOperationException() {
+        final Wizard pagedWizard = createWizard(new PagedWizardFlow.Builder(new TestStepProvider(2, -1)).create());
+        pagedWizard.addStep(TestStep.class, false);
+    }
+
+    @Test
+    public void testGoNext_PagedFlow_NavigatesSteps() {
+        final Wizard pagedWizard = createWizard(new PagedWizardFlow.Builder(new TestStepProvider(3, -1)).create().newSession());
+        assertEquals(0, pagedWizard.getCurrentStepPosition());
+        assertNotNull(pagedWizard.getCurrentStep());
+
+        pagedWizard.goNext();
+        pagedWizard.goNext();
+        assertEquals(2, pagedWizard.getCurrentStepPosition());
+        assertTrue(pagedWizard.getFlow().isStepCompleted(1));
+
+        pagedWizard.goBack();
+        assertEquals(1, pagedWizard.getCurrentStepPosition());
+    }
+
+    @Test
+    public void testGoNextGoBack_PagedFlowAcrossPages_CompletionKeptWhenPagesReloaded() {
+        final TestStepProvider provider = new TestStepProvider(10, -1);
+        final Wizard pagedWizard = createWizard(new PagedWizardFlow.Builder(provider)
+                .setPageSize(3)
+                .setMaxPages(2)
+                .create().newSession());
+
+        for (int i = 0; i < 9; i++) {
+            pagedWizard.goNext();
+        }
+        assertEquals(9, pagedWizard.getCurrentStepPosition());
+        for (int i = 0; i < 9; i++) {
+            pagedWizard.goBack();
+        }
+        assertEquals(0, pagedWizard.getCurrentStepPosition());
+
+        for (int i = 0; i < 9; i++) {
+            assertTrue(pagedWizard.getFlow().isStepCompleted(i));
+        }
+        assertFalse(pagedWizard.getFlow().isStepCompleted(9));
+        //Four pages went through a window of two
+        assertTrue(provider.loads > 4);
+    }
+
+    @Test
+    public void testGoNext_PagerPagedFlowRequiredStep_PagesCutOffUntilCompleted() {
+        final ViewPager pager = createPager();
+        final Wizard pagedWizard = new Wizard(new PagedWizardFlow.Builder(new TestStepProvider(8, 4))
+                .setPageSize(3)
+                .create().newSession(), contextManager, mockCallbacks, mockContext, mockContext.getSupportFragmentManager(), pager);
+        layout(pager);
+        assertEquals(5, pager.getAdapter().getCount());
+
+        for (int i = 0; i < 5; i++) {
+            pagedWizard.goNext();
+            layout(pager);
+        }
+        //The required step stops the wizard
+        assertEquals(4, pagedWizard.getCurrentStepPosition());
+        assertEquals(4, pager.getCurrentItem());
+        assertFalse(pagedWizard.getFlow().isStepCompleted(4));
+
+        pagedWizard.onStepCompleted(true);
+        assertEquals(8, pager.getAdapter().getCount());
+        pagedWizard.goNext();
+        layout(pager);
+        assertEquals(5, pagedWizard.getCurrentStepPosition());
+        assertEquals(5, pager.getCurrentItem());
+        assertNotNull(pagedWizard.getCurrentStep());
+
+        pagedWizard.goBack();
+        layout(pager);
+        assertEquals(4, pager.getCurrentItem());
+        assertTrue(pagedWizard.getFlow().isStepCompleted(4));
+    }
+
+    @Test
+    public void testWarmUp_PagedFlow_PagesNotLoaded() {
+        final TestStepProvider provider = new TestStepProvider(10, -1);
+        final PagedWizardFlow flow = new PagedWizardFlow.Builder(provider).setPageSize(3).create();
+        flow.getStepClass(4);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        Wizard.warmUp(flow, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        assertEquals(1, provider.loads);
+        assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void testGoNext_ValidatorFails_NavigatesToFailingStep() {
+        final RecordingCallbacks callbacks = new RecordingCallbacks();
+        final Wizard validatedWizard = createValidatedWizard(callbacks, OtherStep.class);
+
+        validatedWizard.goNext();
+
+        assertEquals(2, validatedWizard.getCurrentStepPosition());
+        assertEquals(1, callbacks.failures.size());
+        assertFalse(callbacks.completed);
+    }
+
+    @Test
+    public void testGoNext_ValidatorFailsForStepOutsideFlow_ReportedWithoutNavigating() {
+        final RecordingCallbacks callbacks = new RecordingCallbacks();
+        final Wizard validatedWizard = createValidatedWizard(callbacks, StepOutsideFlow.class);
+
+        validatedWizard.goNext();
+
+        assertEquals(3, validatedWizard.getCurrentStepPosition());
+        assertEquals(1, callbacks.failures.size());
+        assertEquals(StepOutsideFlow.class, callbacks.failures.get(0).getStepClass());
+    }
+
+    /**
+     * Wizard on the last step of {@link #createFlow(boolean)}, with a failing validator of a step running on
+     * the calling thread
+     */
+    private Wizard createValidatedWizard(RecordingCallbacks callbacks, Class<? extends WizardStep> failingStep) {
+        final Wizard validatedWizard = new Wizard(createFlow(false), contextManager, callbacks, mockContext,
+                mockContext.getSupportFragmentManager());
+        validatedWizard.setCurrentStep(0);
+        validatedWizard.setValidationExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        validatedWizard.addValidator(failingStep, new WizardValidator() {
+            @Override
+            public ValidationFailure validate(Bundle context) {
+                return new ValidationFailure("invalid");
+            }
+        });
+        validatedWizard.jumpTo(3);
+        return validatedWizard;
+    }
+
+    @Test
+    public void testGoNext_PagerEntersSubFlow_PagerShowsChildFlow() {
+        final ViewPager pager = createPager();
+        final Wizard pagedWizard = createPagedWizard(pager);
+        final WizardFlow parentFlow = pagedWizard.getFlow();
+
+        pagedWizard.goNext();
+        layout(pager);
+
+        assertEquals(1, pagedWizard.getSubFlowDepth());
+        assertNotSame(parentFlow, pagedWizard.getFlow());
+        assertEquals(0, pagedWizard.getCurrentStepPosition());
+        assertEquals(0, pager.getCurrentItem());
+        assertEquals(2, pager.getAdapter().getCount());
+        assertNotNull(pagedWizard.getCurrentStep());
+    }
+
+    @Test
+    public void testGoNext_PagerLeavesCompletedSubFlow_PagerShowsParentFlow() {
+        final ViewPager pager = createPager();
+        final Wizard pagedWizard = createPagedWizard(pager);
+        final WizardFlow parentFlow = pagedWizard.getFlow();
+
+        pagedWizard.goNext();
+        layout(pager);
+        pagedWizard.goNext();
+        layout(pager);
+        pagedWizard.goNext();
+        layout(pager);
+
+        assertEquals(0, pagedWizard.getSubFlowDepth());
+        assertSame(parentFlow, pagedWizard.getFlow());
+        assertTrue(parentFlow.isStepCompleted(1));
+        assertEquals(2, pagedWizard.getCurrentStepPosition());
+        assertEquals(2, pager.getCurrentItem());
+        assertEquals(3, pager.getAdapter().getCount());
+        assertNotNull(pagedWizard.getCurrentStep());
+    }
+
+    @Test
+    public void testGoBack_PagerLeavesSubFlowAtFirstStep_PagerShowsStepBeforeSubFlow() {
+        final ViewPager pager = createPager();
+        final Wizard pagedWizard = createPagedWizard(pager);
+        final WizardFlow parentFlow = pagedWizard.getFlow();
+
+        pagedWizard.goNext();
+        layout(pager);
+        pagedWizard.goBack();
+        layout(pager);
+
+        assertEquals(0, pagedWizard.getSubFlowDepth());
+        assertSame(parentFlow, pagedWizard.getFlow());
+        assertFalse(parentFlow.isStepCompleted(1));
+        assertEquals(0, pagedWizard.getCurrentStepPosition());
+        assertEquals(0, pager.getCurrentItem());
+        assertNotNull(pagedWizard.getCurrentStep());
+    }
+
+    @Test
+    public void testGoNext_PagerBranchSkipsRequiredStep_PagerShowsBranchTarget() {
+        final ViewPager pager = createPager();
+        final Wizard pagedWizard = new Wizard(new WizardFlow.Builder()
+                .addStep(TestStep.class)
+                .addBranch("accountType", "business", 3)
+                .addStep(TestStep.class)
+                .addStep(TestStep.class, true)
+                .addStep(TestStep.class)
+                .create().newSession(), contextManager, mockCallbacks, mockContext, mockContext.getSupportFragmentManager(), pager);
+        layout(pager);
+        assertEquals(3, pager.getAdapter().getCount());
+
+        contextManager.getContext().putString("accountType", "business");
+        pagedWizard.goNext();
+        layout(pager);
+
+        assertEquals(3, pagedWizard.getCurrentStepPosition());
+        assertEquals(3, pager.getCurrentItem());
+        assertEquals(4, pager.getAdapter().getCount());
+        assertNotNull(pagedWizard.getCurrentStep());
+
+        pagedWizard.goBack();
+        layout(pager);
+
+        assertEquals(0, pagedWizard.getCurrentStepPosition());
+        assertEquals(0, pager.getCurrentItem());
+        assertEquals(3, pager.getAdapter().getCount());
+    }
+
+    @Test
+    public void testJumpTo_ForwardOverOptionalSteps_GoBackReturnsToOrigin() {
+        final Wizard jumpingWizard = createWizard(createFlow(false));
+
+        assertTrue(jumpingWizard.jumpTo(3));
+        assertEquals(3, jumpingWizard.getCurrentStepPosition());
+        assertTrue(jumpingWizard.getFlow().isStepCompleted(0));
+        assertFalse(jumpingWizard.getFlow().isStepCompleted(1));
+
+        jumpingWizard.goBack();
+        assertEquals(0, jumpingWizard.getCurrentStepPosition());
+    }
+
+    @Test
+    public void testJumpTo_ForwardOverIncompleteRequiredStep_StaysOnStep() {
+        final Wizard jumpingWizard = createWizard(createFlow(true));
+
+        assertFalse(jumpingWizard.jumpTo(3));
+        assertEquals(0, jumpingWizard.getCurrentStepPosition());
+    }
+
+    @Test
+    public void testJumpTo_Backward_MovesToStep() {
+        final Wizard jumpingWizard = createWizard(createFlow(false));
+        jumpingWizard.jumpTo(3);
+
+        assertTrue(jumpingWizard.jumpTo(1));
+        assertEquals(1, jumpingWizard.getCurrentStepPosition());
+        jumpingWizard.goBack();
+        assertEquals(0, jumpingWizard.getCurrentStepPosition());
+    }
+
+    @Test
+    public void testJumpTo_CurrentStep_ReturnsFalse() {
+        assertFalse(wizard.jumpTo(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testJumpTo_InvalidPosition_ThrowsIndexOutOfBoundsException() {
+        wizard.jumpTo(2);
+    }
+
+    @Test
+    public void testJumpTo_StepClass_MovesToFirstStepOfClass() {
+        final Wizard jumpingWizard = createWizard(createFlow(false));
+
+        assertTrue(jumpingWizard.jumpTo(OtherStep.class));
+        assertEquals(2, jumpingWizard.getCurrentStepPosition());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJumpTo_StepClassNotInFlow_ThrowsIllegalArgumentException() {
+        wizard.jumpTo(OtherStep.class);
+    }
+
+    @Test
+    public void testJumpTo_PagerStepNotInstantiated_MovesToStep() {
+        final ViewPager pager = createPager();
+        final Wizard pagedWizard = new Wizard(createFlow(false), contextManager, mockCallbacks, mockContext,
+                mockContext.getSupportFragmentManager(), pager);
+
+        //The pager wasn't laid out, so the current step doesn't exist yet
+        assertNull(pagedWizard.getCurrentStep());
+        assertTrue(pagedWizard.jumpTo(3));
+        assertEquals(3, pagedWizard.getCurrentStepPosition());
+        assertEquals(3, pager.getCurrentItem());
+    }
+
+    /**
+     * Flow of a step, an optional or required step, an {@link OtherStep} and another step
+     */
+    private static WizardFlow createFlow(boolean secondStepRequired) {
+        return new WizardFlow.Builder()
+                .addStep(TestStep.class)
+                .addStep(TestStep.class, secondStepRequired)
+                .addStep(OtherStep.class)
+                .addStep(TestStep.class)
+                .create().newSession();
+    }
+
+    private ViewPager createPager() {
+        final ViewPager pager = new ViewPager(mockContext);
+        pager.setId(R.id.step_container);
+        mockContext.setContentView(pager);
+        return pager;
+    }
+
+    /**
+     * Flow of a step, a sub-flow of two steps and another step
+     */
+    private Wizard createPagedWizard(ViewPager pager) {
+        final Wizard pagedWizard = new Wizard(new WizardFlow.Builder()
+                .addStep(TestStep.class)
+                .addSubFlow(new WizardFlow.SubFlow() {
+                    @Override
+                    public WizardFlow onSetup() {
+                        return new WizardFlow.Builder()
+                                .addStep(TestStep.class)
+                                .addStep(TestStep.class)
+                                .create();
+                    }
+                })
+                .addStep(TestStep.class)
+                .create().newSession(), contextManager, mockCallbacks, mockContext, mockContext.getSupportFragmentManager(), pager);
+        layout(pager);
+        return pagedWizard;
+    }
+
+    /**
+     * Lay the pager out so it instantiates the pages around its current item
+     */
+    private static void layout(ViewPager pager) {
+        pager.measure(View.MeasureSpec.makeMeasureSpec(480, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(800, View.MeasureSpec.EXACTLY));
+        pager.layout(0, 0, 480, 800);
+    }
     /*
     @Test
     public void testSetCurrentStep() throws Exception {
@@ -124,4 +482,57 @@ public class WizardTest {
     public void testSetContext() throws Exception {
 
     }*/
+
+    public static class OtherStep extends TestStep {
+    }
+
+    public static class StepOutsideFlow extends TestStep {
+    }
+
+    private static class RecordingCallbacks implements Wizard.WizardCallbacks, Wizard.ValidationCallbacks {
+        private final List<ValidationFailure> failures = new ArrayList<ValidationFailure>();
+        private boolean completed;
+
+        @Override
+        public void onWizardComplete() {
+            completed = true;
+        }
+
+        @Override
+        public void onStepChanged() {
+        }
+
+        @Override
+        public void onValidationFailed(List<ValidationFailure> failures) {
+            this.failures.addAll(failures);
+        }
+    }
+
+    /**
+     * Provider of TestSteps with an optional required step, counting the pages loaded
+     */
+    private static class TestStepProvider implements StepProvider {
+        private final int stepsCount;
+        private final int requiredPosition;
+        private int loads;
+
+        TestStepProvider(int stepsCount, int requiredPosition) {
+            this.stepsCount = stepsCount;
+            this.requiredPosition = requiredPosition;
+        }
+
+        @Override
+        public int getStepsCount() {
+            return stepsCount;
+        }
+
+        @Override
+        public void loadSteps(int offset, int count, Class<? extends WizardStep>[] stepClasses, boolean[] required) {
+            loads++;
+            for (int i = 0; i < count; i++) {
+                stepClasses[i] = TestStep.class;
+                required[i] = offset + i == requiredPosition;
+            }
+        }
+    }
 }